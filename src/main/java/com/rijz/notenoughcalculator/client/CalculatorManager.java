@@ -19,6 +19,7 @@
 package com.rijz.notenoughcalculator.client;
 
 import com.rijz.notenoughcalculator.config.CalculatorConfig;
+import com.rijz.notenoughcalculator.core.CalculationClassifier;
 import com.rijz.notenoughcalculator.core.ExpressionEvaluator;
 import com.rijz.notenoughcalculator.core.ResultFormatter;
 import me.shedaniel.rei.api.client.REIRuntime;
@@ -29,7 +30,11 @@ import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages calculator state and handles live calculation display in REI search bar.
@@ -39,6 +44,13 @@ import java.util.regex.Pattern;
  * - Equation-level history for Ctrl+Z/Y navigation (whole equations, not keystrokes)
  * - Completed calculation history for /calchist command
  * - Detecting whether input is a calculation vs item search
+ *
+ * Live results are worked out on a background thread so a slow expression never drops frames.
+ * Every request gets a generation number; results for anything but the newest request are thrown
+ * away, and the overlay keeps showing the previous result until the new one is ready.
+ * All evaluator access is synchronized on the evaluator since /calc and /calcset use it too.
+ * The render thread never waits on the worker: Enter only uses a result that's already in, and a
+ * committed ans is handed over through pendingAnswer instead of taking the lock.
  */
 public class CalculatorManager {
 
@@ -51,6 +63,7 @@ public class CalculatorManager {
     private String lastSearchInput = "";
     private String lastFormattedResult = null;
     private String lastErrorMessage = null;
+    private boolean lastResultRecovered = false;  // Shown result is only a preview of unfinished input
 
     // Two separate history systems:
     // - reiSearchHistory: completed equations for Ctrl+Z/Y (e.g., "100+50", "200*3")
@@ -70,16 +83,38 @@ public class CalculatorManager {
 
     private boolean sessionResetNotified = false;
 
-    // Precompiled regex patterns (compiled once for performance)
-    private static final Pattern OPERATOR_PATTERN = Pattern.compile(".*[+\\-*/^%xX].*");
-    private static final Pattern UNIT_PATTERN = Pattern.compile(".*\\d+\\s*[kmbtseh](?:\\s|$|[+\\-*/^%xX()])", Pattern.CASE_INSENSITIVE);
-    private static final Pattern STORAGE_UNIT_PATTERN = Pattern.compile(".*\\d+\\s*(?:sc|dc|eb)(?:\\s|$|[+\\-*/^%xX()])", Pattern.CASE_INSENSITIVE);
-    private static final Pattern FUNCTION_PATTERN = Pattern.compile(".*(sqrt|abs|floor|ceil|round)\\s*\\(", Pattern.CASE_INSENSITIVE);
-    private static final Pattern VARIABLE_PATTERN = Pattern.compile(".*(ans|\\$\\w+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern PAREN_PATTERN = Pattern.compile(".*[()].*");
-    private static final Pattern NUMBER_ONLY = Pattern.compile("^\\s*\\d+\\.?\\d*\\s*$");
-    private static final Pattern TRAILING_OPERATOR = Pattern.compile(".*[+\\-*/^%xX]\\s*$");
-    private static final Pattern MINECRAFT_ITEM = Pattern.compile("(?i).*(sword|pickaxe|axe|shovel|hoe|helmet|chestplate|leggings|boots|diamond|iron|gold|stone|wood|bow|arrow|block|ore|ingot|coal|redstone|lapis|emerald|netherite|pearl|eye|blaze|slime|magma|prismarine|quartz|obsidian|glowstone|hopper|chest|furnace|crafting|enchant|potion|book|bed)");
+    // formatSearchBar runs every frame. REI hands back the same String until the text changes,
+    // so remember what it was given last time (and what that cleaned up to) and skip all the
+    // cleaning and classifying when it's the same again.
+    private String lastRawInput = null;
+    private String lastRawCleaned = null;
+    private boolean lastInputIsCalculation = false;
+
+    // How many times formatSearchBar actually had to look at the text. Stays put while the overlay is idle.
+    private long searchBarWork = 0;
+
+    // Live evaluation off the render thread. One worker, and it only ever evaluates the newest
+    // input, so a burst of keystrokes turns into one evaluation instead of a queue of them.
+    private final ExecutorService liveExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("NotEnoughCalculator-live").factory());
+    private final AtomicLong liveGeneration = new AtomicLong();
+    private final AtomicReference<LiveRequest> pendingRequest = new AtomicReference<>();
+    private final AtomicBoolean workerScheduled = new AtomicBoolean(false);
+    private volatile LiveResult finishedResult = null;
+    private long shownGeneration = 0;  // Request the shown result belongs to, render thread only
+
+    // ans from a committed calculation, handed to the evaluator by whoever takes its lock next.
+    // Committing happens on the render thread, which shouldn't wait for the worker to let go.
+    private final AtomicReference<BigDecimal> pendingAnswer = new AtomicReference<>();
+
+    private record LiveRequest(long generation, String input) {
+    }
+
+    // Either value or tooExpensiveMessage is set, neither means the input had an error.
+    // recovered: the value is only a preview of unfinished input (see ExpressionEvaluator.Preview)
+    private record LiveResult(long generation, String input, BigDecimal value, boolean recovered,
+                              String tooExpensiveMessage) {
+    }
 
     public CalculatorManager() {
         this.evaluator = new ExpressionEvaluator();
@@ -94,69 +129,7 @@ public class CalculatorManager {
      * - "diamond*2" is a calculation (even though it has "diamond" in it)
      */
     public boolean looksLikeCalculation(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return false;
-        }
-
-        String trimmed = input.trim();
-
-        // Plain number with no operators? Probably searching for items
-        if (NUMBER_ONLY.matcher(trimmed).matches()) {
-            return false;
-        }
-
-        // Item name without operators? Definitely a search
-        if (MINECRAFT_ITEM.matcher(trimmed).matches() && !OPERATOR_PATTERN.matcher(trimmed).matches()) {
-            return false;
-        }
-
-        // Now check for calculation indicators
-        if (OPERATOR_PATTERN.matcher(trimmed).matches()) return true;
-        if (PAREN_PATTERN.matcher(trimmed).matches()) return true;
-        if (FUNCTION_PATTERN.matcher(trimmed).matches()) return true;
-        if (VARIABLE_PATTERN.matcher(trimmed).matches()) return true;
-        if (UNIT_PATTERN.matcher(trimmed).matches()) return true;
-        if (STORAGE_UNIT_PATTERN.matcher(trimmed).matches()) return true;
-
-        return false;
-    }
-
-    /**
-     * Check if expression is complete enough to evaluate.
-     * We don't want to show errors while someone is mid-typing.
-     *
-     * Incomplete examples:
-     * - "5 +" (trailing operator)
-     * - "sqrt(" (unclosed function)
-     * - "(5 + 3" (unclosed paren)
-     */
-    private boolean isExpressionComplete(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return false;
-        }
-
-        String trimmed = input.trim();
-
-        // Can't end with operator
-        if (TRAILING_OPERATOR.matcher(trimmed).matches()) {
-            return false;
-        }
-
-        // Check parentheses are balanced
-        int parenCount = 0;
-        for (char c : trimmed.toCharArray()) {
-            if (c == '(') parenCount++;
-            if (c == ')') parenCount--;
-            if (parenCount < 0) return false;  // More closing than opening
-        }
-        if (parenCount != 0) return false;  // Unmatched parens
-
-        // Can't end with incomplete function call
-        if (trimmed.matches(".*(?:sqrt|abs|floor|ceil|round)\\s*\\([^)]*$")) {
-            return false;
-        }
-
-        return true;
+        return CalculationClassifier.looksLikeCalculation(input);
     }
 
     /**
@@ -168,7 +141,17 @@ public class CalculatorManager {
      * 3. Live calculation + display
      */
     public String formatSearchBar(String input) {
+        // Show whatever the background worker finished since last frame
+        applyLiveResult();
+
+        // Same text as last frame, and nothing else (like history navigation) changed lastSearchInput
+        if (input != null && input.equals(lastRawInput) && lastRawCleaned == lastSearchInput) {
+            return lastSearchInput;
+        }
+        searchBarWork++;
+
         String cleanInput = ResultFormatter.cleanInput(input);
+        boolean calculation = looksLikeCalculation(cleanInput);
 
         // If user manually types while in history mode, exit history mode
         if (reiHistoryIndex != -1 && !cleanInput.equals(lastSearchInput)) {
@@ -196,24 +179,43 @@ public class CalculatorManager {
 
             lastSearchInput = cleanInput;
 
-            // Calculate and show result if it looks complete
-            if (looksLikeCalculation(cleanInput)) {
-                if (isExpressionComplete(cleanInput)) {
-                    calculateForDisplay(cleanInput);
-                } else {
-                    // Still typing, don't show anything
-                    lastFormattedResult = null;
-                    lastErrorMessage = null;
-                }
+            // Calculate and show result, unfinished input like "(5+3" gets previewed too
+            if (calculation) {
+                calculateForDisplay(cleanInput);
             } else {
-                lastFormattedResult = null;
-                lastErrorMessage = null;
+                clearLiveResult();
             }
         }
 
+        lastRawInput = input;
+        lastRawCleaned = lastSearchInput;
+        lastInputIsCalculation = calculation;
         return cleanInput;
     }
 
+    /**
+     * Pick up a finished live result without looking at the search text,
+     * for frames where the text field listener says nothing changed.
+     */
+    public void pollLiveResult() {
+        applyLiveResult();
+    }
+
+    /**
+     * Whether the text from the last {@link #formatSearchBar} call is a calculation.
+     * Saves classifying the same text again while rendering.
+     */
+    public boolean isCalculation() {
+        return lastInputIsCalculation;
+    }
+
+    /**
+     * Number of formatSearchBar calls that had new text to deal with (for checking an idle overlay costs nothing).
+     */
+    public long getSearchBarWorkCount() {
+        return searchBarWork;
+    }
+
     /**
      * Add completed equation to REI search history (for Ctrl+Z).
      * Only saves FULL equations, not individual keystrokes.
@@ -244,31 +246,112 @@ public class CalculatorManager {
     /**
      * Calculate result for live display (doesn't add to /calchist).
      * Runs quietly - errors are suppressed to avoid spam while typing.
+     * The result shows up a frame or so later, see applyLiveResult.
      */
     private void calculateForDisplay(String input) {
         if (input == null || input.trim().isEmpty()) {
-            lastFormattedResult = null;
-            lastErrorMessage = null;
+            clearLiveResult();
             return;
         }
 
-        try {
-            BigDecimal result = evaluator.evaluateQuiet(input);
-            lastFormattedResult = ResultFormatter.formatWithCommas(result);
-            lastErrorMessage = null;
+        long generation = liveGeneration.incrementAndGet();
+        pendingRequest.set(new LiveRequest(generation, input));
 
-            // Mark as uncommitted (will be committed when user clears search)
-            lastCompletedExpression = input;
-            lastCompletedResult = result;
-            hasUncommittedCalculation = true;
+        // Start the worker unless it's already running - it picks up the newest request by itself
+        if (workerScheduled.compareAndSet(false, true)) {
+            liveExecutor.execute(this::runLiveCalculations);
+        }
+    }
 
-        } catch (ExpressionEvaluator.EvalException e) {
+    // Drop the shown result and anything still being worked out
+    private void clearLiveResult() {
+        liveGeneration.incrementAndGet();
+        pendingRequest.set(null);
+        lastFormattedResult = null;
+        lastErrorMessage = null;
+        lastResultRecovered = false;
+    }
+
+    // Background worker: keep evaluating the newest request until there's nothing left
+    private void runLiveCalculations() {
+        while (true) {
+            LiveRequest request = pendingRequest.getAndSet(null);
+            if (request == null) {
+                workerScheduled.set(false);
+                // A request might have snuck in after getAndSet but before we gave up the flag
+                if (pendingRequest.get() == null || !workerScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            LiveResult result = evaluateLive(request);
+
+            // Only publish if nobody typed something newer in the meantime
+            if (request.generation() == liveGeneration.get()) {
+                finishedResult = result;
+            }
+        }
+    }
+
+    private LiveResult evaluateLive(LiveRequest request) {
+        try {
+            ExpressionEvaluator.Preview result;
+            synchronized (evaluator) {
+                takePendingAnswer();
+                result = evaluator.evaluatePreview(request.input());
+            }
+            return new LiveResult(request.generation(), request.input(), result.value(), result.recovered(), null);
+        } catch (ExpressionEvaluator.TooExpensiveException e) {
+            // Valid input, just too big to work out live - say so instead of showing nothing
+            return new LiveResult(request.generation(), request.input(), null, false, e.getMessage());
+        } catch (Exception e) {
             // Silently ignore errors during live typing
-            lastFormattedResult = null;
+            return new LiveResult(request.generation(), request.input(), null, false, null);
+        }
+    }
+
+    /**
+     * Pick up a finished live result, if it's for the newest input. Render thread only.
+     * Until then the previous result stays on screen.
+     */
+    private void applyLiveResult() {
+        LiveResult result = finishedResult;
+        if (result == null) {
+            return;
+        }
+        finishedResult = null;
+
+        if (result.generation() != liveGeneration.get()) {
+            return;  // Stale, a newer request is on its way
+        }
+        shownGeneration = result.generation();
+
+        if (result.value() != null) {
+            // Formatting happens here, the formatter isn't thread-safe
+            lastFormattedResult = ResultFormatter.formatWithCommas(result.value());
             lastErrorMessage = null;
-        } catch (Exception e) {
+            lastResultRecovered = result.recovered();
+
+            // Mark as uncommitted (will be committed when user clears search). Unfinished input
+            // only gets the preview: backspacing "5+3" to "5+" shouldn't turn it into "5+ = 5".
+            if (!result.recovered()) {
+                lastCompletedExpression = result.input();
+                lastCompletedResult = result.value();
+                hasUncommittedCalculation = true;
+            }
+        } else {
             lastFormattedResult = null;
-            lastErrorMessage = null;
+            lastErrorMessage = result.tooExpensiveMessage();
+            lastResultRecovered = false;
+        }
+    }
+
+    // Caller holds the evaluator lock. Anything that evaluates or reads ans calls this first.
+    private void takePendingAnswer() {
+        BigDecimal answer = pendingAnswer.getAndSet(null);
+        if (answer != null) {
+            evaluator.setLastAnswer(answer);
         }
     }
 
@@ -279,6 +362,8 @@ public class CalculatorManager {
     private void commitPendingCalculation() {
         if (hasUncommittedCalculation && lastCompletedExpression != null && lastCompletedResult != null) {
             addToCompletedHistory(lastCompletedExpression, lastCompletedResult);
+            // Live results don't touch ans, it only moves on once a calculation is actually done
+            pendingAnswer.set(lastCompletedResult);
             lastCompletedExpression = null;
             lastCompletedResult = null;
             hasUncommittedCalculation = false;
@@ -320,16 +405,26 @@ public class CalculatorManager {
         return lastFormattedResult;
     }
 
+    // Only "too expensive" is shown in the live view, other errors are usually just unfinished typing
     public String getLastErrorMessage() {
-        return null;  // We don't show errors in live view
+        return lastErrorMessage;
     }
 
     public boolean hasResult() {
         return lastFormattedResult != null;
     }
 
+    /**
+     * Is the shown result for a finished calculation of the newest input, the one Enter would commit?
+     * A preview of unfinished input like "5+3*(2" is shown but never committed, and neither is
+     * the previous input's result while the worker is still on the new one. Doesn't wait for it.
+     */
+    public boolean hasCommittableResult() {
+        return lastFormattedResult != null && !lastResultRecovered && shownGeneration == liveGeneration.get();
+    }
+
     public boolean hasError() {
-        return false;
+        return lastErrorMessage != null;
     }
 
     /**
@@ -337,7 +432,11 @@ public class CalculatorManager {
      */
     public BigDecimal calculate(String input) throws ExpressionEvaluator.EvalException {
         String cleanInput = ResultFormatter.cleanInput(input);
-        BigDecimal result = evaluator.evaluate(cleanInput);
+        BigDecimal result;
+        synchronized (evaluator) {
+            takePendingAnswer();
+            result = evaluator.evaluate(cleanInput);
+        }
 
         // Command-based calculations go straight to history
         addToCompletedHistory(cleanInput, result);
@@ -426,16 +525,17 @@ public class CalculatorManager {
         if (index >= 0 && index < reiSearchHistory.size()) {
             try {
                 String historyText = reiSearchHistory.get(index);
-                REIRuntime.getInstance().getSearchTextField().setText(historyText);
 
-                // Update internal state without triggering history save
+                // Update internal state without triggering history save. Before setText, the
+                // text field listener passes the new text straight to formatSearchBar.
                 lastSearchInput = historyText;
                 currentEquation = "";  // Don't save while navigating
+                REIRuntime.getInstance().getSearchTextField().setText(historyText);
 
-                if (looksLikeCalculation(historyText) && isExpressionComplete(historyText)) {
+                if (looksLikeCalculation(historyText)) {
                     calculateForDisplay(historyText);
                 } else {
-                    lastFormattedResult = null;
+                    clearLiveResult();
                 }
             } catch (Exception e) {
                 LOGGER.error("Failed to set search field text: ", e);
@@ -448,14 +548,14 @@ public class CalculatorManager {
      */
     private void restoreSavedInput() {
         try {
-            REIRuntime.getInstance().getSearchTextField().setText(savedCurrentInput);
             lastSearchInput = savedCurrentInput;
             currentEquation = savedCurrentInput;  // Resume tracking this equation
+            REIRuntime.getInstance().getSearchTextField().setText(savedCurrentInput);
 
-            if (looksLikeCalculation(savedCurrentInput) && isExpressionComplete(savedCurrentInput)) {
+            if (looksLikeCalculation(savedCurrentInput)) {
                 calculateForDisplay(savedCurrentInput);
             } else {
-                lastFormattedResult = null;
+                clearLiveResult();
             }
 
             savedCurrentInput = "";
@@ -465,7 +565,21 @@ public class CalculatorManager {
     }
 
     public void setVariable(String name, String valueExpr) throws ExpressionEvaluator.EvalException {
-        evaluator.setVariable(name, valueExpr);
+        synchronized (evaluator) {
+            takePendingAnswer();
+            evaluator.setVariable(name, valueExpr);
+        }
+    }
+
+    /**
+     * Evaluate many expressions in parallel, see {@link ExpressionEvaluator#evaluateAll}.
+     * Doesn't touch ans, the history or the live result.
+     */
+    public List<ExpressionEvaluator.BatchResult> evaluateAll(List<String> expressions) {
+        synchronized (evaluator) {
+            takePendingAnswer();
+            return evaluator.evaluateAll(expressions);
+        }
     }
 
     public List<String> getHistory() {
@@ -473,7 +587,9 @@ public class CalculatorManager {
     }
 
     public List<String> getCommandHistory() {
-        return evaluator.getHistory();
+        synchronized (evaluator) {
+            return evaluator.getHistory();
+        }
     }
 
     public List<String> getReiHistory() {
@@ -481,7 +597,10 @@ public class CalculatorManager {
     }
 
     public void clearHistory() {
-        evaluator.clearHistory();
+        synchronized (evaluator) {
+            evaluator.clearHistory();
+        }
+        clearLiveResult();
         reiSearchHistory.clear();
         completedHistory.clear();
         reiHistoryIndex = -1;
@@ -498,11 +617,17 @@ public class CalculatorManager {
     }
 
     public BigDecimal getLastAnswer() {
-        return evaluator.getLastAnswer();
+        synchronized (evaluator) {
+            takePendingAnswer();
+            return evaluator.getLastAnswer();
+        }
     }
 
     public String getVariablesInfo() {
-        return evaluator.getVariablesInfo();
+        synchronized (evaluator) {
+            takePendingAnswer();
+            return evaluator.getVariablesInfo();
+        }
     }
 
     /**
@@ -510,6 +635,7 @@ public class CalculatorManager {
      * Prevents history from persisting across sessions.
      */
     public void reset() {
+        clearLiveResult();
         lastSearchInput = "";
         lastFormattedResult = null;
         lastErrorMessage = null;
@@ -522,7 +648,9 @@ public class CalculatorManager {
         lastCompletedResult = null;
         hasUncommittedCalculation = false;
         sessionResetNotified = false;
-        evaluator.clearHistory();
+        synchronized (evaluator) {
+            evaluator.clearHistory();
+        }
         LOGGER.info("Calculator reset (session ended)");
     }
 
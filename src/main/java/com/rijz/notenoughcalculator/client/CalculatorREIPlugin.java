@@ -25,8 +25,11 @@ import me.shedaniel.rei.api.client.registry.entry.EntryRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 // REI plugin registration
-// We don't actually add any categories/displays, just need to register as a plugin
+// We don't actually add any categories/displays, but REI's entry list feeds the item name index
 public class CalculatorREIPlugin implements REIClientPlugin {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CalculatorREIPlugin.class);
@@ -43,6 +46,14 @@ public class CalculatorREIPlugin implements REIClientPlugin {
 
     @Override
     public void registerEntries(EntryRegistry registry) {
+        // Names of everything REI shows, so searching for any of them isn't taken for a calculation
+        try {
+            List<String> names = new ArrayList<>();
+            registry.getEntryStacks().forEach(stack -> names.add(stack.asFormattedText().getString()));
+            ItemNameIndex.setReiNames(names);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Couldn't read REI entry names, using item registry names only", e);
+        }
         LOGGER.debug("Not Enough Calculator - REI Entries registered");
     }
 }
\ No newline at end of file
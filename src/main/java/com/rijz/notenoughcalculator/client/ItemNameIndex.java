@@ -0,0 +1,99 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.client;
+
+import com.rijz.notenoughcalculator.core.CalculationClassifier;
+import com.rijz.notenoughcalculator.core.ItemNameMatcher;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.ResourceReloadListenerKeys;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
+import net.minecraft.item.Item;
+import net.minecraft.registry.Registries;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
+import net.minecraft.util.Identifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+// Feeds the names of every item (and whatever REI lists) to the calculation classifier,
+// so "5 andesite" counts as a search even though andesite isn't in the built-in word list.
+// Rebuilt when resources reload, which is also when the language (and so the names) can change.
+public final class ItemNameIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ItemNameIndex.class);
+
+    // Names of REI's entries from its last reload, REI calls in from its own thread
+    private static List<String> reiNames = List.of();
+
+    private ItemNameIndex() {
+    }
+
+    public static void register() {
+        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(
+                new SimpleSynchronousResourceReloadListener() {
+                    @Override
+                    public Identifier getFabricId() {
+                        return Identifier.of("notenoughcalculator", "item_names");
+                    }
+
+                    @Override
+                    public Collection<Identifier> getFabricDependencies() {
+                        // Display names come from the language files
+                        return Set.of(ResourceReloadListenerKeys.LANGUAGES);
+                    }
+
+                    @Override
+                    public void reload(ResourceManager manager) {
+                        rebuild();
+                    }
+                });
+    }
+
+    // REI's entry list changed (see CalculatorREIPlugin.registerEntries)
+    public static synchronized void setReiNames(List<String> names) {
+        reiNames = List.copyOf(names);
+        rebuild();
+    }
+
+    // Registry ids ("diamond_sword"), display names in the current language, and REI's entries
+    public static synchronized void rebuild() {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>(Registries.ITEM.size() * 2 + reiNames.size());
+        for (Item item : Registries.ITEM) {
+            names.add(Registries.ITEM.getId(item).getPath());
+            try {
+                names.add(item.getName().getString());
+            } catch (RuntimeException e) {
+                // Some modded item's name blew up, its id is still in
+                LOGGER.debug("Couldn't get name of {}: {}", Registries.ITEM.getId(item), e.toString());
+            }
+        }
+        names.addAll(reiNames);
+
+        ItemNameMatcher matcher = ItemNameMatcher.fromNames(names);
+        CalculationClassifier.setItemNames(matcher);
+        LOGGER.debug("Item name index rebuilt: {} words from {} names in {} µs",
+                matcher.size(), names.size(), (System.nanoTime() - start) / 1000);
+    }
+}
@@ -20,6 +20,9 @@ package com.rijz.notenoughcalculator.client;
 
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.rijz.notenoughcalculator.client.command.CalcCommands;
+import com.rijz.notenoughcalculator.client.mixin.rei.TextFieldWidgetAccessor;
+import com.rijz.notenoughcalculator.client.util.DrawContextCompat;
+import com.rijz.notenoughcalculator.client.util.ObservableTextField;
 import com.rijz.notenoughcalculator.client.util.REIHelper;
 import com.rijz.notenoughcalculator.config.CalculatorConfig;
 import me.shedaniel.math.Rectangle;
@@ -36,7 +39,6 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.font.TextRenderer;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.Screen;
-import net.minecraft.client.gui.screen.ingame.HandledScreen;
 import net.minecraft.client.util.math.MatrixStack;
 import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
@@ -64,6 +66,15 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
     private static Method getSelectionEndMethod = null;
     private static boolean reflectionInitialized = false;
 
+    // Search field text the calculator already has: which field, its change count and the text.
+    // Edits come in through onSearchTextChanged, so the render path only looks when these don't match.
+    private static TextField handledSearchField = null;
+    private static long handledChangeCount = -1;
+    private static String handledSearchText = null;
+
+    // What the overlay drew last frame, rebuilt when the text, result, cursor or field bounds change
+    private static OverlayLayout overlayLayout = null;
+
     @Override
     public void onInitializeClient() {
         LOGGER.info("Not Enough Calculator initializing...");
@@ -75,6 +86,7 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
         registerWorldStateTracking();
         registerScreenRendering();
         registerCommands();
+        ItemNameIndex.register();
 
         LOGGER.info("Not Enough Calculator initialized successfully!");
     }
@@ -103,7 +115,8 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
 
             // If REI just closed (was visible, now not visible), commit any pending calculation
             if (wasREIVisible && !isREIVisibleNow) {
-                LOGGER.debug("REI overlay closed - committing pending calculation");
+                LOGGER.debug("REI overlay closed - committing pending calculation (search bar updates so far: {})",
+                        calcManager.getSearchBarWorkCount());
                 calcManager.commitPendingCalculationPublic();
             }
 
@@ -129,6 +142,7 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
     }
 
     // Initialize reflection once for TextField cursor/selection access
+    // Only used when the accessor mixin didn't apply (an REI version we don't know)
     private static void initReflection(TextField searchField) {
         if (reflectionInitialized) return;
         reflectionInitialized = true;
@@ -178,10 +192,15 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
         }
     }
 
-    // Get cursor position from TextField using reflection
+    // Get cursor position from TextField, through the accessor mixin or else reflection
     private static int getCursorPosition(TextField searchField) {
         if (searchField == null) return 0;
 
+        if (searchField instanceof TextFieldWidgetAccessor accessor) {
+            return accessor.notenoughcalculator$getCursor();
+        }
+        initReflection(searchField);
+
         try {
             if (getCursorMethod != null) {
                 Object result = getCursorMethod.invoke(searchField);
@@ -204,10 +223,15 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
         return searchField.getText().length();
     }
 
-    // Get selection end position from TextField using reflection
+    // Get selection end position from TextField, through the accessor mixin or else reflection
     private static int getSelectionEnd(TextField searchField) {
         if (searchField == null) return 0;
 
+        if (searchField instanceof TextFieldWidgetAccessor accessor) {
+            return accessor.notenoughcalculator$getSelectionEnd();
+        }
+        initReflection(searchField);
+
         try {
             if (getSelectionEndMethod != null) {
                 Object result = getSelectionEndMethod.invoke(searchField);
@@ -243,6 +267,36 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
         return null;
     }
 
+    // Called by TextFieldWidgetMixin on every edit of an REI text field, once per edit
+    public static void onSearchTextChanged(TextField field, String text) {
+        try {
+            REIRuntime runtime = REIRuntime.getInstance();
+            if (runtime == null || runtime.getSearchTextField() != field) {
+                return;
+            }
+            calcManager.formatSearchBar(text);
+            markSearchTextHandled(field, text);
+        } catch (Exception e) {
+            // Never break REI's text field over this, the render path catches up instead
+            LOGGER.debug("Search text listener failed: {}", e.getMessage());
+        }
+    }
+
+    // Same field, no edits since, and still the same String REI had then
+    private static boolean isSearchTextHandled(TextField searchField, String searchText) {
+        return searchField == handledSearchField
+                && searchField instanceof ObservableTextField observable
+                && observable.notenoughcalculator$getChangeCount() == handledChangeCount
+                && searchText == handledSearchText;
+    }
+
+    private static void markSearchTextHandled(TextField searchField, String searchText) {
+        handledSearchField = searchField;
+        handledChangeCount = searchField instanceof ObservableTextField observable
+                ? observable.notenoughcalculator$getChangeCount() : -1;
+        handledSearchText = searchText;
+    }
+
     // Draw calculation results next to the user's input in REI search
     private void renderCalculatorOverlay(Screen screen, DrawContext context, int mouseX, int mouseY, float delta) {
         MinecraftClient mc = MinecraftClient.getInstance();
@@ -268,14 +322,17 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
                 return;
             }
 
-            // Initialize reflection once
-            initReflection(searchField);
-
             String searchText = searchField.getText();
-            calcManager.formatSearchBar(searchText);
+            if (isSearchTextHandled(searchField, searchText)) {
+                calcManager.pollLiveResult();
+            } else {
+                // No listener on this field, or an edit got past it
+                calcManager.formatSearchBar(searchText);
+                markSearchTextHandled(searchField, searchText);
+            }
 
-            // Only show results if this is actually a calculation with a valid answer
-            if (!calcManager.looksLikeCalculation(searchText) || !calcManager.hasResult()) {
+            // Only show results if this is actually a calculation with a valid answer (or one too big to work out)
+            if (!calcManager.isCalculation() || !(calcManager.hasResult() || calcManager.hasError())) {
                 return;
             }
 
@@ -303,182 +360,32 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
             );
         }
 
-        // Get the matrix stack (compatible with both 1.21.5 and 1.21.6)
-        MatrixStack matrices = getMatrixStack(context);
-
-        // Move to top layer (z-index 1000) so we draw over everything else
-        matrices.push();
-        matrices.translate(0, 0, 1000);
-
-        // Draw the search field background
-        drawSearchFieldBackground(context, searchBounds);
+        // Get the matrix stack (only there before 1.21.6, later versions draw 2D in order anyway)
+        MatrixStack matrices = DrawContextCompat.getMatrices(context);
 
-        // Figure out where to draw text
-        int textX = searchBounds.x + 4;
-        int textY = searchBounds.y + (searchBounds.height - 8) / 2;
-
-        // Get cursor and selection info
+        // Work out text positions and widths only when something actually changed
         int cursorPos = getCursorPosition(searchField);
         int selectionEnd = getSelectionEnd(searchField);
-        int selectionStart = Math.min(cursorPos, selectionEnd);
-        int selectionEndPos = Math.max(cursorPos, selectionEnd);
-        boolean hasSelection = selectionStart != selectionEndPos;
-
-        // Draw text with selection highlight
-        if (hasSelection) {
-            drawTextWithSelection(context, textRenderer, searchText, textX, textY,
-                    selectionStart, selectionEndPos);
-        } else {
-            drawText(context, textRenderer, searchText, textX, textY, 0xFFFFFFFF, true);
+        boolean isError = !calcManager.hasResult();
+        String result = isError ? calcManager.getLastErrorMessage() : calcManager.getLastFormattedResult();
+        if (overlayLayout == null || !overlayLayout.matches(searchText, result, isError, cursorPos, selectionEnd,
+                searchBounds, textRenderer)) {
+            overlayLayout = OverlayLayout.build(searchText, result, isError, cursorPos, selectionEnd,
+                    searchBounds, textRenderer);
         }
 
-        // Show the calculation result (moves to next line if overflow)
-        if (calcManager.hasResult()) {
-            drawCalculationResult(context, textRenderer, searchText, searchBounds, textX, textY);
+        // Move to top layer (z-index 1000) so we draw over everything else
+        if (matrices != null) {
+            matrices.push();
+            matrices.translate(0, 0, 1000);
         }
 
-        // Draw the blinking text cursor (only if no selection)
-        if (!hasSelection) {
-            drawCursor(context, searchBounds, searchText, textRenderer, textX, textY, cursorPos);
-        }
+        // Background, text with selection, the result (inline or above) and the cursor
+        overlayLayout.draw(context);
 
         // Done - restore the matrix state
-        matrices.pop();
-    }
-
-    // Draw text with selection highlight
-    private void drawTextWithSelection(DrawContext context, TextRenderer textRenderer,
-                                       String text, int x, int y, int selStart, int selEnd) {
-        if (text.isEmpty()) return;
-
-        // Split text into three parts: before selection, selected, after selection
-        String beforeSelection = selStart > 0 ? text.substring(0, selStart) : "";
-        String selectedText = selEnd > selStart ? text.substring(selStart, selEnd) : "";
-        String afterSelection = selEnd < text.length() ? text.substring(selEnd) : "";
-
-        int currentX = x;
-
-        // Draw text before selection
-        if (!beforeSelection.isEmpty()) {
-            drawText(context, textRenderer, beforeSelection, currentX, y, 0xFFFFFFFF, true);
-            currentX += textRenderer.getWidth(beforeSelection);
-        }
-
-        // Draw selection highlight and selected text
-        if (!selectedText.isEmpty()) {
-            int selectionWidth = textRenderer.getWidth(selectedText);
-
-            // Draw blue highlight background
-            context.fill(currentX, y - 1, currentX + selectionWidth, y + 9, 0xFF0066CC);
-
-            // Draw selected text in white
-            drawText(context, textRenderer, selectedText, currentX, y, 0xFFFFFFFF, true);
-            currentX += selectionWidth;
-        }
-
-        // Draw text after selection
-        if (!afterSelection.isEmpty()) {
-            drawText(context, textRenderer, afterSelection, currentX, y, 0xFFFFFFFF, true);
-        }
-    }
-
-    // Get MatrixStack in a way that works for both 1.21.5 and 1.21.6
-    private MatrixStack getMatrixStack(DrawContext context) {
-        try {
-            // Try 1.21.6 method first
-            return (MatrixStack) context.getClass().getMethod("getMatrices").invoke(context);
-        } catch (Exception e) {
-            try {
-                // Fall back to 1.21.5 method
-                return (MatrixStack) context.getClass().getMethod("method_51448").invoke(context);
-            } catch (Exception ex) {
-                // If both fail, create a new one (fallback)
-                LOGGER.warn("Could not get MatrixStack, using new instance");
-                return new MatrixStack();
-            }
-        }
-    }
-
-    // Draw text with version compatibility
-    private void drawText(DrawContext context, TextRenderer textRenderer, String text, int x, int y, int color, boolean shadow) {
-        try {
-            // Try 1.21.6 method signature (returns int)
-            context.getClass()
-                    .getMethod("drawText", TextRenderer.class, String.class, int.class, int.class, int.class, boolean.class)
-                    .invoke(context, textRenderer, text, x, y, color, shadow);
-        } catch (Exception e) {
-            try {
-                // Try 1.21.5 method signature (returns int, different method name)
-                context.getClass()
-                        .getMethod("method_51433", TextRenderer.class, String.class, int.class, int.class, int.class, boolean.class)
-                        .invoke(context, textRenderer, text, x, y, color, shadow);
-            } catch (Exception ex) {
-                // Ultimate fallback - just skip drawing this text
-                LOGGER.warn("Could not draw text, incompatible Minecraft version");
-            }
-        }
-    }
-
-    // Draw the gray border and black background for the search field
-    private void drawSearchFieldBackground(DrawContext context, Rectangle bounds) {
-        // Gray border (matches REI's normal style)
-        context.fill(bounds.x, bounds.y, bounds.getMaxX(), bounds.getMaxY(), 0xFF8B8B8B);
-        // Black inside
-        context.fill(bounds.x + 1, bounds.y + 1, bounds.getMaxX() - 1, bounds.getMaxY() - 1, 0xFF000000);
-    }
-
-    // Show the calculation result
-    // NEW APPROACH: If result doesn't fit on same line, show it ABOVE the search bar
-    private void drawCalculationResult(DrawContext context, TextRenderer textRenderer, String searchText,
-                                       Rectangle searchBounds, int textX, int textY) {
-        String result = calcManager.getLastFormattedResult();
-        int queryWidth = textRenderer.getWidth(searchText);
-        String resultDisplay = " = " + result;
-
-        int resultX = textX + queryWidth;
-        int maxX = searchBounds.getMaxX() - 4;
-        int displayWidth = textRenderer.getWidth(resultDisplay);
-
-        // Check if result fits on the same line
-        if (resultX + displayWidth <= maxX) {
-            // Result fits - draw on same line
-            drawText(context, textRenderer, resultDisplay, resultX, textY, 0xFFFFFFFF, true);
-        } else {
-            // Result doesn't fit - draw ABOVE the search bar
-            int aboveY = searchBounds.y - 12; // 12 pixels above search bar
-            int aboveX = searchBounds.x + 4;
-
-            // Draw a background for the result above
-            int bgHeight = 12;
-            int bgWidth = Math.min(displayWidth + 8, searchBounds.width - 4);
-            context.fill(aboveX - 2, aboveY - 2, aboveX + bgWidth, aboveY + bgHeight - 2, 0xCC000000);
-
-            // Draw the result text
-            drawText(context, textRenderer, resultDisplay, aboveX, aboveY, 0xFFFFFFFF, true);
-        }
-    }
-
-    // Draw a blinking cursor at the correct position
-    private void drawCursor(DrawContext context, Rectangle bounds, String text,
-                            TextRenderer tr, int textX, int textY, int cursorPos) {
-        try {
-            long time = System.currentTimeMillis();
-            if ((time / 500) % 2 == 0) { // Blink every half second
-                // Calculate cursor X position based on cursor position in text
-                String textBeforeCursor = cursorPos > 0 && cursorPos <= text.length()
-                        ? text.substring(0, cursorPos)
-                        : "";
-
-                int cursorX = textX + tr.getWidth(textBeforeCursor);
-                int cursorY = textY - 1;
-
-                // Make sure cursor stays within bounds
-                if (cursorX >= bounds.x + 4 && cursorX < bounds.getMaxX() - 4) {
-                    context.fill(cursorX, cursorY, cursorX + 1, cursorY + 9, 0xFFFFFFFF);
-                }
-            }
-        } catch (Exception ignored) {
-            // Don't crash if cursor rendering fails
+        if (matrices != null) {
+            matrices.pop();
         }
     }
 
@@ -502,7 +409,14 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
                 if (searchField != null) {
                     String searchText = searchField.getText();
                     boolean isCalculation = calcManager.looksLikeCalculation(searchText);
-                    boolean hasResult = calcManager.hasResult();
+
+                    // Live results are calculated in the background. Catch up with this input, but don't
+                    // wait for it: if its result isn't in yet (or it's only a preview of unfinished input)
+                    // Enter goes through like it does for an error.
+                    if (key == GLFW.GLFW_KEY_ENTER && isCalculation) {
+                        calcManager.formatSearchBar(searchText);
+                    }
+                    boolean hasResult = calcManager.hasCommittableResult();
 
                     // If Enter is pressed on a calculation with a result
                     if (key == GLFW.GLFW_KEY_ENTER && isCalculation && hasResult) {
@@ -563,6 +477,8 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
             // Configuration
             dispatcher.register(ClientCommandManager.literal("calcconfig")
                     .executes(CalcCommands::executeConfig));
+            dispatcher.register(ClientCommandManager.literal("calcscreen")
+                    .executes(CalcCommands::executeScreens));
         });
     }
 
@@ -577,21 +493,9 @@ public class NotEnoughCalculatorClient implements ClientModInitializer {
     }
 
     // Only allow calculator in actual gameplay screens (not menus, loading screens, etc)
-    // HandledScreen = inventory, chest, furnace, etc - all the in-game GUIs
-    // Also allow REI recipe screens and other REI-related screens
+    // Decided once per screen class, see ScreenPolicy
     private static boolean isNonGameplayScreen(Screen screen) {
-        if (screen instanceof HandledScreen) {
-            return false; // Allow HandledScreen (inventories, chests, etc.)
-        }
-
-        // Allow REI screens (recipe viewing, etc.)
-        String screenClassName = screen.getClass().getName();
-        if (screenClassName.contains("rei") || screenClassName.contains("REI")) {
-            return false; // Allow REI screens
-        }
-
-        // Block everything else (main menu, loading screens, etc.)
-        return true;
+        return !ScreenPolicy.isAllowed(screen);
     }
 
     // Is REI currently visible?
@@ -0,0 +1,181 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client;
+
+import com.rijz.notenoughcalculator.client.util.DrawContextCompat;
+import me.shedaniel.math.Rectangle;
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Everything the calculator overlay draws over the search field, worked out once.
+// Text widths, where the selection splits the text, and whether the result fits on the same
+// line only change with the text, the result, the cursor/selection or the field's position,
+// so frames in between just replay the fills and draws kept here.
+final class OverlayLayout {
+
+    private static final int TEXT_COLOR = 0xFFFFFFFF;
+    private static final int ERROR_COLOR = 0xFFAAAAAA;  // Gray hint like " = Too expensive to calculate"
+    private static final int SELECTION_COLOR = 0xFF0066CC;
+
+    // One fill (text == null) or one piece of text, in drawing order
+    private record Op(String text, int x1, int y1, int x2, int y2, int color) {
+    }
+
+    // What the layout was built from
+    private final String searchText;
+    private final String result;
+    private final boolean error;
+    private final int cursor;
+    private final int selectionEnd;
+    private final int boundsX;
+    private final int boundsY;
+    private final int boundsWidth;
+    private final int boundsHeight;
+    private final TextRenderer textRenderer;
+
+    private final Op[] ops;
+
+    // Where the blinking cursor goes, or -1 for no cursor (there's a selection, or it's outside the field)
+    private final int cursorX;
+    private final int cursorY;
+
+    private OverlayLayout(String searchText, String result, boolean error, int cursor, int selectionEnd,
+                          Rectangle bounds, TextRenderer textRenderer, Op[] ops, int cursorX, int cursorY) {
+        this.searchText = searchText;
+        this.result = result;
+        this.error = error;
+        this.cursor = cursor;
+        this.selectionEnd = selectionEnd;
+        this.boundsX = bounds.x;
+        this.boundsY = bounds.y;
+        this.boundsWidth = bounds.width;
+        this.boundsHeight = bounds.height;
+        this.textRenderer = textRenderer;
+        this.ops = ops;
+        this.cursorX = cursorX;
+        this.cursorY = cursorY;
+    }
+
+    // Is this layout still right for the current state? Mostly identity checks, REI and the
+    // calculator keep the same strings around until they change.
+    boolean matches(String searchText, String result, boolean error, int cursor, int selectionEnd,
+                    Rectangle bounds, TextRenderer textRenderer) {
+        return this.cursor == cursor
+                && this.selectionEnd == selectionEnd
+                && this.error == error
+                && this.textRenderer == textRenderer
+                && boundsX == bounds.x && boundsY == bounds.y
+                && boundsWidth == bounds.width && boundsHeight == bounds.height
+                && this.searchText.equals(searchText)
+                && this.result.equals(result);
+    }
+
+    static OverlayLayout build(String searchText, String result, boolean error, int cursor, int selectionEnd,
+                               Rectangle bounds, TextRenderer textRenderer) {
+        List<Op> ops = new ArrayList<>();
+
+        // Gray border (matches REI's normal style) and black inside
+        ops.add(new Op(null, bounds.x, bounds.y, bounds.getMaxX(), bounds.getMaxY(), 0xFF8B8B8B));
+        ops.add(new Op(null, bounds.x + 1, bounds.y + 1, bounds.getMaxX() - 1, bounds.getMaxY() - 1, 0xFF000000));
+
+        // Figure out where to draw text
+        int textX = bounds.x + 4;
+        int textY = bounds.y + (bounds.height - 8) / 2;
+
+        int length = searchText.length();
+        int selectionStart = clamp(Math.min(cursor, selectionEnd), length);
+        int selectionStop = clamp(Math.max(cursor, selectionEnd), length);
+        boolean hasSelection = selectionStart != selectionStop;
+
+        if (hasSelection) {
+            // Split text into three parts: before selection, selected, after selection
+            int currentX = textX;
+            if (selectionStart > 0) {
+                String before = searchText.substring(0, selectionStart);
+                ops.add(text(before, currentX, textY, TEXT_COLOR));
+                currentX += textRenderer.getWidth(before);
+            }
+
+            String selected = searchText.substring(selectionStart, selectionStop);
+            int selectionWidth = textRenderer.getWidth(selected);
+            ops.add(new Op(null, currentX, textY - 1, currentX + selectionWidth, textY + 9, SELECTION_COLOR));
+            ops.add(text(selected, currentX, textY, TEXT_COLOR));
+            currentX += selectionWidth;
+
+            if (selectionStop < length) {
+                ops.add(text(searchText.substring(selectionStop), currentX, textY, TEXT_COLOR));
+            }
+        } else {
+            ops.add(text(searchText, textX, textY, TEXT_COLOR));
+        }
+
+        // The result goes right after the text, or above the search bar if it doesn't fit
+        String resultDisplay = " = " + result;
+        int color = error ? ERROR_COLOR : TEXT_COLOR;
+        int resultX = textX + textRenderer.getWidth(searchText);
+        int displayWidth = textRenderer.getWidth(resultDisplay);
+        if (resultX + displayWidth <= bounds.getMaxX() - 4) {
+            ops.add(text(resultDisplay, resultX, textY, color));
+        } else {
+            int aboveY = bounds.y - 12; // 12 pixels above search bar
+            int aboveX = bounds.x + 4;
+            int bgWidth = Math.min(displayWidth + 8, bounds.width - 4);
+            ops.add(new Op(null, aboveX - 2, aboveY - 2, aboveX + bgWidth, aboveY + 10, 0xCC000000));
+            ops.add(text(resultDisplay, aboveX, aboveY, color));
+        }
+
+        // Cursor only without a selection, and only if it stays within the field
+        int cursorX = -1;
+        if (!hasSelection) {
+            String beforeCursor = cursor > 0 && cursor <= length ? searchText.substring(0, cursor) : "";
+            int x = textX + textRenderer.getWidth(beforeCursor);
+            if (x >= bounds.x + 4 && x < bounds.getMaxX() - 4) {
+                cursorX = x;
+            }
+        }
+
+        return new OverlayLayout(searchText, result, error, cursor, selectionEnd, bounds, textRenderer,
+                ops.toArray(new Op[0]), cursorX, textY - 1);
+    }
+
+    void draw(DrawContext context) {
+        for (Op op : ops) {
+            if (op.text() == null) {
+                context.fill(op.x1(), op.y1(), op.x2(), op.y2(), op.color());
+            } else {
+                DrawContextCompat.drawText(context, textRenderer, op.text(), op.x1(), op.y1(), op.color(), true);
+            }
+        }
+
+        // Blink every half second
+        if (cursorX >= 0 && (System.currentTimeMillis() / 500) % 2 == 0) {
+            context.fill(cursorX, cursorY, cursorX + 1, cursorY + 9, TEXT_COLOR);
+        }
+    }
+
+    private static Op text(String text, int x, int y, int color) {
+        return new Op(text, x, y, 0, 0, color);
+    }
+
+    private static int clamp(int index, int length) {
+        return Math.max(0, Math.min(index, length));
+    }
+}
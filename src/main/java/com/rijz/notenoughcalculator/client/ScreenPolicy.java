@@ -0,0 +1,148 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client;
+
+import com.rijz.notenoughcalculator.config.CalculatorConfig;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.gui.screen.ingame.HandledScreen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Which screens the calculator works on. Decided once per screen class (the render callback and
+// every key press ask), from the config's allow/deny lists and then the built-in rules:
+// inventories/containers and REI's own screens yes, everything else (menus, loading screens) no.
+public final class ScreenPolicy {
+
+    /**
+     * The decision for one screen class. reasonKey is a translation key, matched is the config
+     * entry that decided it (empty for the built-in rules).
+     */
+    public record Verdict(boolean allowed, String reasonKey, String matched) {
+    }
+
+    // Decisions go with the lists they were made from, a config change with other lists starts over
+    private record Rules(List<String> allowed, List<String> blocked, ClassValue<Verdict> verdicts) {
+    }
+
+    private static volatile Rules rules = newRules(List.of(), List.of());
+
+    // Every class decided so far, for /calcscreen (a ClassValue can't be listed)
+    private static final Map<String, Verdict> seen = new ConcurrentHashMap<>();
+
+    static {
+        CalculatorConfig.addListener(ScreenPolicy::onConfigChanged);
+        onConfigChanged(CalculatorConfig.getInstance());
+    }
+
+    private ScreenPolicy() {
+    }
+
+    public static boolean isAllowed(Screen screen) {
+        return verdict(screen.getClass()).allowed();
+    }
+
+    public static Verdict verdict(Class<?> screenClass) {
+        return rules.verdicts().get(screenClass);
+    }
+
+    /**
+     * Screen classes decided with the current lists, by class name.
+     */
+    public static Map<String, Verdict> seenScreens() {
+        return Map.copyOf(seen);
+    }
+
+    // Config (re)loaded, only throw the decisions away if the lists actually changed
+    private static synchronized void onConfigChanged(CalculatorConfig config) {
+        List<String> allowed = copy(config.allowedScreens);
+        List<String> blocked = copy(config.blockedScreens);
+        Rules current = rules;
+        if (allowed.equals(current.allowed()) && blocked.equals(current.blocked())) {
+            return;
+        }
+        seen.clear();
+        rules = newRules(allowed, blocked);
+    }
+
+    private static Rules newRules(List<String> allowed, List<String> blocked) {
+        return new Rules(allowed, blocked, new ClassValue<>() {
+            @Override
+            protected Verdict computeValue(Class<?> type) {
+                Verdict verdict = decide(type, allowed, blocked);
+                seen.put(type.getName(), verdict);
+                return verdict;
+            }
+        });
+    }
+
+    private static Verdict decide(Class<?> type, List<String> allowed, List<String> blocked) {
+        // Blocking wins, so a mod's screen can be turned off even if it's a container
+        String match = findMatch(type, blocked);
+        if (match != null) {
+            return new Verdict(false, "notenoughcalculator.screen.reason.blocked", match);
+        }
+        match = findMatch(type, allowed);
+        if (match != null) {
+            return new Verdict(true, "notenoughcalculator.screen.reason.allowed", match);
+        }
+
+        // HandledScreen = inventory, chest, furnace, etc - all the in-game GUIs
+        if (HandledScreen.class.isAssignableFrom(type)) {
+            return new Verdict(true, "notenoughcalculator.screen.reason.container", "");
+        }
+
+        // Allow REI screens (recipe viewing, etc.)
+        String name = type.getName();
+        if (name.contains("rei") || name.contains("REI")) {
+            return new Verdict(true, "notenoughcalculator.screen.reason.rei", "");
+        }
+
+        // Block everything else (main menu, loading screens, etc.)
+        return new Verdict(false, "notenoughcalculator.screen.reason.other", "");
+    }
+
+    // A list entry matches the class or any superclass, by full or simple name
+    private static String findMatch(Class<?> type, List<String> entries) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (String entry : entries) {
+                if (entry.equals(c.getName()) || entry.equals(c.getSimpleName())) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> copy(List<String> entries) {
+        List<String> result = new ArrayList<>();
+        if (entries != null) {
+            for (String entry : entries) {
+                if (entry != null && !entry.isBlank()) {
+                    result.add(entry.trim());
+                }
+            }
+        }
+        return List.copyOf(result);
+    }
+}
@@ -21,6 +21,7 @@ package com.rijz.notenoughcalculator.client.command;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
 import com.rijz.notenoughcalculator.client.NotEnoughCalculatorClient;
+import com.rijz.notenoughcalculator.client.ScreenPolicy;
 import com.rijz.notenoughcalculator.config.CalculatorConfig;
 import com.rijz.notenoughcalculator.core.ExpressionEvaluator;
 import com.rijz.notenoughcalculator.core.ResultFormatter;
@@ -29,6 +30,8 @@ import net.minecraft.text.Text;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Command handlers for calculator chat commands.
@@ -346,6 +349,11 @@ public class CalcCommands {
         send(ctx, "notenoughcalculator.help.variables.practical_2_step3");
         sendEmpty(ctx);
 
+        send(ctx, "notenoughcalculator.help.variables.practical_3_title");
+        send(ctx, "notenoughcalculator.help.variables.practical_3_step1");
+        send(ctx, "notenoughcalculator.help.variables.practical_3_step2");
+        sendEmpty(ctx);
+
         send(ctx, "notenoughcalculator.help.variables.current");
         String vars = NotEnoughCalculatorClient.getCalculatorManager().getVariablesInfo();
         sendLiteral(ctx, "§7" + vars);
@@ -413,6 +421,7 @@ public class CalcCommands {
         send(ctx, "notenoughcalculator.help.config.file_edit_1");
         send(ctx, "notenoughcalculator.help.config.file_edit_2");
         send(ctx, "notenoughcalculator.help.config.file_edit_3");
+        send(ctx, "notenoughcalculator.help.config.file_edit_4");
         sendEmpty(ctx);
 
         send(ctx, "notenoughcalculator.help.config.current");
@@ -453,10 +462,48 @@ public class CalcCommands {
                 config.enableHistoryNavigation ?
                         t("notenoughcalculator.config.enabled").getString() :
                         t("notenoughcalculator.config.disabled").getString());
+        send(ctx, "notenoughcalculator.config.compiled_formulas",
+                config.enableCompiledFormulas ?
+                        t("notenoughcalculator.config.enabled").getString() :
+                        t("notenoughcalculator.config.disabled").getString());
         sendEmpty(ctx);
 
         send(ctx, "notenoughcalculator.config.edit_file");
 
         return 1;
     }
-}
\ No newline at end of file
+
+    public static int executeScreens(CommandContext<FabricClientCommandSource> ctx) {
+        CalculatorConfig config = CalculatorConfig.getInstance();
+
+        send(ctx, "notenoughcalculator.screen.title");
+        sendEmpty(ctx);
+
+        send(ctx, "notenoughcalculator.screen.allowed_list", listOrNone(config.allowedScreens));
+        send(ctx, "notenoughcalculator.screen.blocked_list", listOrNone(config.blockedScreens));
+        sendEmpty(ctx);
+
+        // Only screens the calculator was asked about, chat is the current screen while typing this
+        Map<String, ScreenPolicy.Verdict> screens = new TreeMap<>(ScreenPolicy.seenScreens());
+        send(ctx, "notenoughcalculator.screen.seen");
+        if (screens.isEmpty()) {
+            send(ctx, "notenoughcalculator.screen.none_seen");
+        }
+        for (Map.Entry<String, ScreenPolicy.Verdict> entry : screens.entrySet()) {
+            ScreenPolicy.Verdict verdict = entry.getValue();
+            send(ctx, verdict.allowed() ? "notenoughcalculator.screen.entry_allowed" : "notenoughcalculator.screen.entry_blocked",
+                    entry.getKey(), t(verdict.reasonKey(), verdict.matched()).getString());
+        }
+        sendEmpty(ctx);
+
+        send(ctx, "notenoughcalculator.screen.edit_hint");
+        return 1;
+    }
+
+    private static String listOrNone(List<String> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return t("notenoughcalculator.screen.none_configured").getString();
+        }
+        return String.join(", ", entries);
+    }
+}
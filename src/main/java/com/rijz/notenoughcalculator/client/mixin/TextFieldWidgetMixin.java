@@ -0,0 +1,49 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client.mixin;
+
+import com.rijz.notenoughcalculator.client.NotEnoughCalculatorClient;
+import com.rijz.notenoughcalculator.client.util.ObservableTextField;
+import me.shedaniel.rei.api.client.gui.widgets.TextField;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+// Tells the calculator about every edit of REI's text fields, instead of it checking the search
+// text every frame. TextFieldWidget is in REI's implementation (we only compile against the API),
+// hence the target by name. If REI ever renames onChanged this just doesn't apply, and the
+// overlay goes back to checking the text each frame.
+@Mixin(targets = "me.shedaniel.rei.impl.client.gui.widget.basewidgets.TextFieldWidget", remap = false)
+public abstract class TextFieldWidgetMixin implements ObservableTextField {
+
+    @Unique
+    private long notenoughcalculator$changeCount;
+
+    @Inject(method = "onChanged", at = @At("HEAD"), require = 0)
+    private void notenoughcalculator$onChanged(String newText, CallbackInfo ci) {
+        notenoughcalculator$changeCount++;
+        NotEnoughCalculatorClient.onSearchTextChanged((TextField) (Object) this, newText);
+    }
+
+    @Override
+    public long notenoughcalculator$getChangeCount() {
+        return notenoughcalculator$changeCount;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client.mixin.rei;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+// Cursor and selection of REI's text field, read directly instead of through reflection.
+// Lives in its own non-required mixin config: on an REI version where these fields are named
+// differently it just isn't applied, and the overlay falls back to finding them by reflection.
+@Mixin(targets = "me.shedaniel.rei.impl.client.gui.widget.basewidgets.TextFieldWidget", remap = false)
+public interface TextFieldWidgetAccessor {
+
+    // The cursor is the selection start, like in vanilla's text field
+    @Accessor("selectionStart")
+    int notenoughcalculator$getCursor();
+
+    @Accessor("selectionEnd")
+    int notenoughcalculator$getSelectionEnd();
+}
@@ -0,0 +1,140 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client.util;
+
+import net.minecraft.client.font.TextRenderer;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.util.math.MatrixStack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+// DrawContext calls that changed names/types between Minecraft versions.
+// The right method is looked up once per DrawContext class and kept as a MethodHandle,
+// so drawing a frame doesn't do any reflection (or throw and catch anything).
+public final class DrawContextCompat {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DrawContextCompat.class);
+
+    // Mapped name first (dev environment), then the intermediary name the game actually has
+    private static final String[] DRAW_TEXT_NAMES = {"drawText", "method_51433"};
+    private static final String[] MATRICES_NAMES = {"getMatrices", "method_51448"};
+
+    private static final MethodType DRAW_TEXT_TYPE = MethodType.methodType(void.class,
+            DrawContext.class, TextRenderer.class, String.class, int.class, int.class, int.class, boolean.class);
+    private static final MethodType MATRICES_TYPE = MethodType.methodType(MatrixStack.class, DrawContext.class);
+
+    // Null handle means there's nothing usable in this version
+    private record Bindings(MethodHandle drawText, MethodHandle matrices) {
+    }
+
+    private static final ClassValue<Bindings> BINDINGS = new ClassValue<>() {
+        @Override
+        protected Bindings computeValue(Class<?> type) {
+            return bind(type);
+        }
+    };
+
+    private DrawContextCompat() {
+    }
+
+    // drawText(textRenderer, text, x, y, color, shadow), whatever it's called and returns in this version
+    public static void drawText(DrawContext context, TextRenderer textRenderer, String text, int x, int y,
+                                int color, boolean shadow) {
+        MethodHandle drawText = BINDINGS.get(context.getClass()).drawText();
+        if (drawText == null) {
+            return;  // Incompatible version, skip drawing this text (already logged)
+        }
+        try {
+            drawText.invokeExact(context, textRenderer, text, x, y, color, shadow);
+        } catch (Throwable t) {
+            LOGGER.debug("drawText failed: {}", t.toString());
+        }
+    }
+
+    // The context's MatrixStack, or null where it doesn't have one (1.21.6+ uses a 2D matrix stack instead)
+    public static MatrixStack getMatrices(DrawContext context) {
+        MethodHandle matrices = BINDINGS.get(context.getClass()).matrices();
+        if (matrices == null) {
+            return null;
+        }
+        try {
+            return (MatrixStack) matrices.invokeExact(context);
+        } catch (Throwable t) {
+            LOGGER.debug("getMatrices failed: {}", t.toString());
+            return null;
+        }
+    }
+
+    private static Bindings bind(Class<?> type) {
+        MethodHandle drawText = null;
+        String drawTextName = "none";
+        for (String name : DRAW_TEXT_NAMES) {
+            Method method = findMethod(type, name, TextRenderer.class, String.class,
+                    int.class, int.class, int.class, boolean.class);
+            if (method != null) {
+                // Returns int in some versions and void in others, drop it either way
+                drawText = unreflect(method, DRAW_TEXT_TYPE);
+                if (drawText != null) {
+                    drawTextName = name;
+                    break;
+                }
+            }
+        }
+
+        MethodHandle matrices = null;
+        String matricesName = "none";
+        for (String name : MATRICES_NAMES) {
+            Method method = findMethod(type, name);
+            if (method != null && MatrixStack.class.isAssignableFrom(method.getReturnType())) {
+                matrices = unreflect(method, MATRICES_TYPE);
+                if (matrices != null) {
+                    matricesName = name;
+                    break;
+                }
+            }
+        }
+
+        if (drawText == null) {
+            LOGGER.warn("Could not find a drawText method on {}, incompatible Minecraft version", type.getName());
+        }
+        LOGGER.info("Drawing through {}: drawText via {}, matrices via {}", type.getName(), drawTextName, matricesName);
+        return new Bindings(drawText, matrices);
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(Method method, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method).asType(type);
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOGGER.debug("Couldn't bind {}: {}", method, e.toString());
+            return null;
+        }
+    }
+}
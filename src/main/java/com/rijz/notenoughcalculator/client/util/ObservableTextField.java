@@ -0,0 +1,26 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.rijz.notenoughcalculator.client.util;
+
+// Added to REI's text fields by TextFieldWidgetMixin. Mixin classes can't be referenced from the
+// rest of the mod, so this is how it sees the hook - and whether it got applied at all.
+public interface ObservableTextField {
+
+    // Goes up on every edit, however it happened (typing, pasting, setText)
+    long notenoughcalculator$getChangeCount();
+}
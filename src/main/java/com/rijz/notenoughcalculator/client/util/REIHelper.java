@@ -18,14 +18,15 @@
 
 package com.rijz.notenoughcalculator.client.util;
 
+import com.rijz.notenoughcalculator.core.CalculationClassifier;
 import me.shedaniel.math.Rectangle;
 import me.shedaniel.rei.api.client.gui.widgets.TextField;
+import me.shedaniel.rei.api.client.gui.widgets.WidgetWithBounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.regex.Pattern;
 
 // Helper for accessing REI's internal components without needing mixins
 // This prevents the annoying red highlighting when you type calculations
@@ -36,12 +37,6 @@ public class REIHelper {
     private static Method getBoundsMethod = null;
     private static boolean initialized = false;
 
-    // Pre-compiled pattern so we don't recompile on every keystroke
-    private static final Pattern CALCULATION_PATTERN = Pattern.compile(
-            ".*([+\\-*/^%xX()]|sqrt|abs|floor|ceil|round|ans|\\$|\\d+\\s*[kmbtseh]|\\d+\\s*(?:sc|dc|eb)).*",
-            Pattern.CASE_INSENSITIVE
-    );
-
     // Set up reflection once instead of every time we need it
     private static void init() {
         if (initialized) return;
@@ -49,13 +44,17 @@ public class REIHelper {
         LOGGER.info("REIHelper initialized - will use runtime reflection");
     }
 
-    // Get the position and size of REI's search field using reflection
-    // We cache the method/field for performance since it's called frequently
+    // Get the position and size of REI's search field
+    // REI's text field is a WidgetWithBounds, reflection is only the fallback for anything else
     public static Rectangle getSearchFieldBounds(TextField searchField) {
         if (searchField == null) {
             return null;
         }
 
+        if (searchField instanceof WidgetWithBounds widget) {
+            return widget.getBounds();
+        }
+
         init();
 
         try {
@@ -208,10 +207,6 @@ public class REIHelper {
 
     // Quick check: does this text look like a calculation?
     public static boolean looksLikeCalculation(String input) {
-        if (input == null || input.trim().isEmpty()) {
-            return false;
-        }
-
-        return CALCULATION_PATTERN.matcher(input.toLowerCase()).matches();
+        return CalculationClassifier.containsCalculationSyntax(input);
     }
 }
\ No newline at end of file
@@ -25,13 +25,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * User settings for the calculator mod.
  * Config file auto-reloads when changed, no restart needed.
  *
+ * A background thread watches the config folder and publishes a new instance when the file
+ * changes, so {@link #getInstance()} is just a field read and cheap enough to call every frame.
+ * The instance you get is a snapshot: don't change its fields, a reload replaces it as a whole.
+ * Use {@link #addListener} to hear about reloads.
+ *
  * Note: History size is hardcoded at 15 equations and not configurable.
  */
 public class CalculatorConfig {
@@ -42,8 +58,14 @@ public class CalculatorConfig {
             .getConfigDir()
             .resolve("notenoughcalculator.json");
 
-    private static CalculatorConfig INSTANCE;
-    private static long lastModified = 0;
+    // Without a WatchService (or if it breaks) the file is checked this often instead
+    private static final long POLL_MILLIS = 1000;
+    // Editors often write a file in several steps, wait for them to finish before reading it
+    private static final long SETTLE_MILLIS = 100;
+
+    private static volatile CalculatorConfig INSTANCE;
+    private static volatile long lastModified = 0;
+    private static final List<Consumer<CalculatorConfig>> listeners = new CopyOnWriteArrayList<>();
 
     // User-configurable settings
     public int decimalPrecision = 10;
@@ -52,36 +74,130 @@ public class CalculatorConfig {
     public boolean showInlineResults = true;
     public boolean enableCommaFormatting = true;
     public boolean enableAutoComplete = false;
+    public boolean enableCompiledFormulas = true;  // Compile often-used expressions for speed
+
+    // Evaluation budget so silly inputs like (10^1000)^1000 can't freeze the game (0 = no limit)
+    public int maxResultDigits = 10000;     // Biggest number (in digits) a calculation may produce
+    public int maxOperations = 1000;        // Most operations in one expression
+    public int maxEvaluationMillis = 50;    // Longest one calculation may run
     public String language = "en_us";
 
+    // Screens the calculator works on besides inventories and REI's screens, and screens it shouldn't.
+    // Class names, full ("com.example.mod.BackpackScreen") or simple ("BackpackScreen"), superclasses count too.
+    // See what's used where with /calcscreen.
+    public List<String> allowedScreens = new ArrayList<>();
+    public List<String> blockedScreens = new ArrayList<>();
+
     // Note: maxHistorySize is NOT here - it's hardcoded at 15 in CalculatorManager
 
     public static CalculatorConfig getInstance() {
-        // Hot reload: check if config file changed and reload if needed
-        if (INSTANCE != null && Files.exists(CONFIG_PATH)) {
-            try {
-                long currentModified = Files.getLastModifiedTime(CONFIG_PATH).toMillis();
-                if (currentModified > lastModified) {
-                    LOGGER.info("Config file changed, reloading...");
-                    INSTANCE = load();
-                }
-            } catch (IOException e) {
-                // Can't check mod time, just keep current config
-            }
+        CalculatorConfig config = INSTANCE;
+        if (config == null) {
+            config = init();
         }
+        return config;
+    }
 
+    /**
+     * Called with the new config every time the file is reloaded. Runs on the watcher thread,
+     * so hand anything that touches the game over to the client thread.
+     */
+    public static void addListener(Consumer<CalculatorConfig> listener) {
+        listeners.add(listener);
+    }
+
+    private static synchronized CalculatorConfig init() {
         if (INSTANCE == null) {
             INSTANCE = load();
+            Thread watcher = new Thread(CalculatorConfig::watch, "NotEnoughCalculator config watcher");
+            watcher.setDaemon(true);
+            watcher.start();
         }
         return INSTANCE;
     }
 
+    // Hot reload: wait for changes in the config folder, fall back to checking once a second
+    private static void watch() {
+        Path dir = CONFIG_PATH.getParent();
+        Path name = CONFIG_PATH.getFileName();
+        try (WatchService service = dir.getFileSystem().newWatchService()) {
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                // Collect everything that happened while the editor was still writing
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context());
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("config folder can't be watched anymore");
+                    }
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    reloadIfChanged();
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | ClosedWatchServiceException | UnsupportedOperationException e) {
+            LOGGER.warn("Can't watch the config folder, checking the file every {} ms instead: {}",
+                    POLL_MILLIS, e.getMessage());
+        }
+
+        try {
+            while (true) {
+                Thread.sleep(POLL_MILLIS);
+                reloadIfChanged();
+            }
+        } catch (InterruptedException e) {
+            // Shutting down
+        }
+    }
+
+    private static void reloadIfChanged() {
+        try {
+            if (!Files.exists(CONFIG_PATH) || Files.getLastModifiedTime(CONFIG_PATH).toMillis() <= lastModified) {
+                // Gone, or our own save
+                return;
+            }
+        } catch (IOException e) {
+            // Can't check mod time, just keep current config
+            return;
+        }
+
+        LOGGER.info("Config file changed, reloading...");
+        CalculatorConfig config;
+        try {
+            config = load();
+        } catch (RuntimeException e) {
+            // Probably saved halfway through an edit, keep what we have
+            LOGGER.warn("Config file has errors, keeping the current settings: {}", e.getMessage());
+            return;
+        }
+        INSTANCE = config;
+        for (Consumer<CalculatorConfig> listener : listeners) {
+            try {
+                listener.accept(config);
+            } catch (RuntimeException e) {
+                LOGGER.error("Config listener failed", e);
+            }
+        }
+    }
+
     private static CalculatorConfig load() {
         try {
             if (Files.exists(CONFIG_PATH)) {
+                // Mod time first, so a file that doesn't parse isn't read again until it's edited
+                lastModified = Files.getLastModifiedTime(CONFIG_PATH).toMillis();
                 String json = Files.readString(CONFIG_PATH);
                 CalculatorConfig config = GSON.fromJson(json, CalculatorConfig.class);
-                lastModified = Files.getLastModifiedTime(CONFIG_PATH).toMillis();
+                if (config == null) {
+                    // Empty file
+                    config = new CalculatorConfig();
+                }
+                config.freeze();
                 LOGGER.info("Loaded config from {}", CONFIG_PATH);
                 return config;
             }
@@ -91,10 +207,17 @@ public class CalculatorConfig {
 
         // No config file yet, create default
         CalculatorConfig config = new CalculatorConfig();
+        config.freeze();
         config.save();
         return config;
     }
 
+    // Other threads read the lists while they're in use, so they can't change after publishing
+    private void freeze() {
+        allowedScreens = allowedScreens == null ? List.of() : Collections.unmodifiableList(new ArrayList<>(allowedScreens));
+        blockedScreens = blockedScreens == null ? List.of() : Collections.unmodifiableList(new ArrayList<>(blockedScreens));
+    }
+
     public void save() {
         try {
             Files.createDirectories(CONFIG_PATH.getParent());
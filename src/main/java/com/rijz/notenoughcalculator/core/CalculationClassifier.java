@@ -0,0 +1,335 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+/**
+ * Decides whether search bar text is a calculation or an item search, in one pass over
+ * the string without allocating (this runs several times a frame while the overlay is open).
+ *
+ * This used to be a stack of ".*"-prefixed regexes. The scans below give exactly the same
+ * answers, including the odd corners of how those were written: String.matches() anchors
+ * both ends, so most checks only look at how the text ends, and '.' doesn't match line
+ * breaks, so a line break outside a "5 \n k" style gap means no match at all.
+ */
+public final class CalculationClassifier {
+
+    // String.toLowerCase() uses the default locale, and in Turkish "I" doesn't become "i"
+    private static final boolean ASCII_LOWERCASE_IS_SIMPLE = "I".toLowerCase().equals("i");
+
+    // Text ending in an item word (and no operator) is an item search
+    private static volatile ItemNameMatcher itemNames = ItemNameMatcher.DEFAULT;
+
+    private static final String[] FUNCTION_NAMES = {"sqrt", "abs", "floor", "ceil", "round"};
+
+    // Words that anywhere in the text mark it as a calculation for the search field colors
+    private static final String[] KEYWORDS = {"sqrt", "abs", "floor", "ceil", "round", "ans"};
+
+    private CalculationClassifier() {
+    }
+
+    /**
+     * Use these item words from now on, e.g. after resources reloaded with another language.
+     */
+    public static void setItemNames(ItemNameMatcher matcher) {
+        itemNames = matcher;
+    }
+
+    /**
+     * Is this a calculation or an item search? Plain numbers and item names count as searches,
+     * unless there's an operator ("diamond*2").
+     */
+    public static boolean looksLikeCalculation(String input) {
+        if (input == null) {
+            return false;
+        }
+
+        // Same bounds as input.trim()
+        int from = 0;
+        int to = input.length();
+        while (from < to && input.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && input.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return false;
+        }
+
+        // Plain number with no operators? Probably searching for items
+        if (isPlainNumber(input, from, to)) {
+            return false;
+        }
+
+        int firstLineBreak = -1;
+        boolean operator = false;
+        boolean paren = false;
+        for (int i = from; i < to; i++) {
+            char c = input.charAt(i);
+            if (isLineBreak(c)) {
+                if (firstLineBreak < 0) {
+                    firstLineBreak = i;
+                }
+            } else if (isOperator(c)) {
+                operator = true;
+            } else if (c == '(' || c == ')') {
+                paren = true;
+            }
+        }
+        boolean singleLine = firstLineBreak < 0;
+
+        // Now check for calculation indicators. An item name only matters without an operator.
+        if (operator && singleLine) {
+            return true;
+        }
+        if (singleLine && itemNames.endsWithName(input, from, to)) {
+            return false;
+        }
+        if (paren && singleLine) {
+            return true;
+        }
+        return endsWithFunctionCall(input, from, to, firstLineBreak)
+                || (singleLine && endsWithVariable(input, from, to))
+                || endsWithUnit(input, from, to, firstLineBreak);
+    }
+
+    /**
+     * Looser check for the search field colors: anything anywhere that could be part of a
+     * calculation (an operator, a function name, ans, '$', a number with a unit).
+     */
+    public static boolean containsCalculationSyntax(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return false;
+        }
+
+        // Matching is case-insensitive anyway, lowercasing only changes anything for non-ASCII
+        // text (or ASCII in a Turkish locale), so only pay for the copy then
+        String text = input;
+        if (!ASCII_LOWERCASE_IS_SIMPLE || !isAscii(input)) {
+            text = input.toLowerCase();
+        }
+
+        int n = text.length();
+        int firstLineBreak = -1;
+        int lastLineBreak = -1;
+        for (int i = 0; i < n; i++) {
+            if (isLineBreak(text.charAt(i))) {
+                if (firstLineBreak < 0) {
+                    firstLineBreak = i;
+                }
+                lastLineBreak = i;
+            }
+        }
+
+        if (firstLineBreak < 0) {
+            return containsCalculationPart(text);
+        }
+
+        // Line breaks can only be inside the gap of a "5 \n k" unit, all of them in the same gap
+        for (int i = firstLineBreak; i <= lastLineBreak; i++) {
+            if (!isSpace(text.charAt(i))) {
+                return false;
+            }
+        }
+        int gapStart = firstLineBreak;
+        while (gapStart > 0 && isSpace(text.charAt(gapStart - 1))) {
+            gapStart--;
+        }
+        int gapEnd = lastLineBreak + 1;
+        while (gapEnd < n && isSpace(text.charAt(gapEnd))) {
+            gapEnd++;
+        }
+        return gapStart > 0 && isDigit(text.charAt(gapStart - 1)) && startsWithUnit(text, gapEnd);
+    }
+
+    // Any operator, paren, '$', keyword or number followed by a unit
+    private static boolean containsCalculationPart(String text) {
+        int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (isOperator(c) || c == '(' || c == ')' || c == '$') {
+                return true;
+            }
+            if (isDigit(c)) {
+                int j = i + 1;
+                while (j < n && isSpace(text.charAt(j))) {
+                    j++;
+                }
+                if (startsWithUnit(text, j)) {
+                    return true;
+                }
+            }
+            for (String keyword : KEYWORDS) {
+                if (regionMatches(text, i, keyword)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // A unit letter, or one of the two letter storage units, starts at i
+    private static boolean startsWithUnit(String text, int i) {
+        if (i >= text.length()) {
+            return false;
+        }
+        // "sc" and "eb" already start with a unit letter
+        return isUnitLetter(text.charAt(i)) || regionMatches(text, i, "dc");
+    }
+
+    // digits, optionally '.' and more digits
+    private static boolean isPlainNumber(String s, int from, int to) {
+        int i = from;
+        while (i < to && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i == from) {
+            return false;
+        }
+        if (i < to && s.charAt(i) == '.') {
+            i++;
+            while (i < to && isDigit(s.charAt(i))) {
+                i++;
+            }
+        }
+        return i == to;
+    }
+
+    // "...sqrt(" - a function name, maybe spaces, then '(' as the very last character
+    private static boolean endsWithFunctionCall(String s, int from, int to, int firstLineBreak) {
+        if (s.charAt(to - 1) != '(') {
+            return false;
+        }
+        int end = to - 1;
+        while (end > from && isSpace(s.charAt(end - 1))) {
+            end--;
+        }
+        for (String name : FUNCTION_NAMES) {
+            int start = end - name.length();
+            if (start >= from && regionMatches(s, start, name)
+                    && (firstLineBreak < 0 || firstLineBreak >= start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // "...ans" or "...$name"
+    private static boolean endsWithVariable(String s, int from, int to) {
+        if (to - from >= 3 && regionMatches(s, to - 3, "ans")) {
+            return true;
+        }
+        int start = to;
+        while (start > from && isWordChar(s.charAt(start - 1))) {
+            start--;
+        }
+        return start < to && start > from && s.charAt(start - 1) == '$';
+    }
+
+    // "...5k", "...5 k", "...5dc", optionally followed by one operator or paren
+    private static boolean endsWithUnit(String s, int from, int to, int firstLineBreak) {
+        if (endsWithUnit(s, from, to, firstLineBreak, 1) || endsWithUnit(s, from, to, firstLineBreak, 2)) {
+            return true;
+        }
+        char last = s.charAt(to - 1);
+        if (isOperator(last) || last == '(' || last == ')') {
+            return endsWithUnit(s, from, to - 1, firstLineBreak, 1)
+                    || endsWithUnit(s, from, to - 1, firstLineBreak, 2);
+        }
+        return false;
+    }
+
+    // Does s[from, to) end with digit, spaces, then a unit of the given length?
+    private static boolean endsWithUnit(String s, int from, int to, int firstLineBreak, int unitLength) {
+        int unitStart = to - unitLength;
+        if (unitStart <= from) {
+            return false;
+        }
+        boolean unit = unitLength == 1
+                ? isUnitLetter(s.charAt(unitStart))
+                : regionMatches(s, unitStart, "sc") || regionMatches(s, unitStart, "dc") || regionMatches(s, unitStart, "eb");
+        if (!unit) {
+            return false;
+        }
+        int digit = unitStart - 1;
+        while (digit >= from && isSpace(s.charAt(digit))) {
+            digit--;
+        }
+        // Line breaks are fine in the gap, not before the number
+        return digit >= from && isDigit(s.charAt(digit)) && (firstLineBreak < 0 || firstLineBreak > digit);
+    }
+
+    // ASCII case-insensitive match of a lowercase word at s[start]
+    private static boolean regionMatches(String s, int start, String word) {
+        if (start + word.length() > s.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (toLowerAscii(s.charAt(start + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isOperator(char c) {
+        return c == '+' || c == '-' || c == '*' || c == '/' || c == '^' || c == '%' || c == 'x' || c == 'X';
+    }
+
+    private static boolean isUnitLetter(char c) {
+        switch (toLowerAscii(c)) {
+            case 'k': case 'm': case 'b': case 't': case 's': case 'e': case 'h':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Regex \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Regex \w
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || isDigit(c);
+    }
+
+    // What regex '.' doesn't match
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
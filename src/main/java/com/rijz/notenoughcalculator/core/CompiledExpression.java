@@ -0,0 +1,135 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * An expression compiled to a flat list of stack machine instructions.
+ *
+ * Example: "2 + 3k" becomes PUSH_CONST 2, PUSH_CONST 3, UNIT k, ADD.
+ * Instruction i is ops[i] with operands[i], and positions[i] is where it came from
+ * in the input so errors point at the same place the parser would.
+ *
+ * Only structure is stored here - ans, $variables and the precision come from the
+ * {@link EvaluationContext} it runs in, so one compiled expression can be cached globally
+ * and run by any number of contexts, on any thread, after any of those change.
+ * The only thing baked in is constants folded while compiling, which is why the fold
+ * precision is kept and a context with a different precision compiles its own copy.
+ */
+public final class CompiledExpression {
+
+    // Opcodes
+    static final byte PUSH_CONST = 0;   // operand: constant index
+    static final byte PUSH_VAR = 1;     // operand: index into names/slots
+    static final byte PUSH_ANS = 2;
+    static final byte NEG = 3;
+    static final byte ADD = 4;
+    static final byte SUB = 5;
+    static final byte MUL = 6;
+    static final byte DIV = 7;
+    static final byte MOD = 8;
+    static final byte POW = 9;
+    static final byte CALL = 10;        // operand: index into Tokenizer.FUNCTION_NAMES
+    static final byte UNIT = 11;        // operand: index into Tokenizer.UNIT_NAMES
+
+    final byte[] ops;
+    final int[] operands;
+    final int[] positions;
+
+    // Constant pool. Constants that fit the long fast path are also stored as longs.
+    final BigDecimal[] constants;
+    final long[] longConstants;
+    final boolean[] exactLongConstants;
+
+    final String[] names;     // Variable names, lowercase without '$'
+    final int[] slots;        // SymbolTable slot of each name, resolved when compiling
+    final int maxStack;       // Deepest the operand stack gets while running
+    final MathContext foldContext;  // Precision constants were folded with
+    final boolean recovered;  // Compiled leniently from incomplete input, see ExpressionCompiler.compile
+
+    // Hot expression tracking, see FormulaCompiler. Not part of the expression itself, just a
+    // cache of how to run it faster that travels with it. Threads may race on these: a lost
+    // update to runs only delays compiling, and the handle works for every context.
+    int runs = 0;
+    volatile MethodHandle formula = null;
+    volatile boolean formulaFailed = false;
+
+    CompiledExpression(byte[] ops, int[] operands, int[] positions, BigDecimal[] constants,
+                       String[] names, int[] slots, int maxStack, MathContext foldContext, boolean recovered) {
+        this.ops = ops;
+        this.operands = operands;
+        this.positions = positions;
+        this.constants = constants;
+        this.names = names;
+        this.slots = slots;
+        this.maxStack = maxStack;
+        this.foldContext = foldContext;
+        this.recovered = recovered;
+
+        this.longConstants = new long[constants.length];
+        this.exactLongConstants = new boolean[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            exactLongConstants[i] = Interpreter.isExactLong(constants[i]);
+            longConstants[i] = exactLongConstants[i] ? constants[i].longValue() : 0;
+        }
+    }
+
+    /**
+     * Compile an expression for running in the given context, reusing the globally cached
+     * version when there is one.
+     */
+    public static CompiledExpression compile(String expr, EvaluationContext context) throws EvalException {
+        return context.compile(expr);
+    }
+
+    /**
+     * Run this expression with the context's ans, variables and precision.
+     * Doesn't change anything in the context except recomputing stale formula variables.
+     */
+    public BigDecimal evaluate(EvaluationContext context) throws EvalException {
+        return context.evaluate(this);
+    }
+
+    int length() {
+        return ops.length;
+    }
+
+    boolean usesAnswer() {
+        for (byte op : ops) {
+            if (op == PUSH_ANS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean usesSlot(int slot) {
+        for (int s : slots) {
+            if (s == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
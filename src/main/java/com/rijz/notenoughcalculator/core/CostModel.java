@@ -0,0 +1,83 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.math.BigDecimal;
+
+/**
+ * Predicts how big a result gets before computing it.
+ *
+ * Sizes are in "plain digits" - how many digits it takes to write the number out without
+ * an exponent, which is what the formatter ends up doing. 1E+1000 is one digit of precision
+ * but 1001 plain digits, and adding 0.1 to it really does make a 1002 digit number.
+ * Estimates are upper bounds (off by one at most), never less than the real size.
+ */
+final class CostModel {
+
+    private CostModel() {
+    }
+
+    // Digits before the decimal point (at least 1, "0.5" has one)
+    static long integerDigits(BigDecimal value) {
+        return Math.max((long) value.precision() - value.scale(), 1);
+    }
+
+    // Digits after the decimal point
+    static long fractionDigits(BigDecimal value) {
+        return Math.max(value.scale(), 0);
+    }
+
+    static long plainDigits(BigDecimal value) {
+        return integerDigits(value) + fractionDigits(value);
+    }
+
+    // a + b or a - b: the longer integer part, one carry digit, the longer fraction
+    static long addDigits(BigDecimal a, BigDecimal b) {
+        return Math.max(integerDigits(a), integerDigits(b)) + 1
+                + Math.max(fractionDigits(a), fractionDigits(b));
+    }
+
+    // a * b: digit counts add up
+    static long multiplyDigits(BigDecimal a, BigDecimal b) {
+        return plainDigits(a) + plainDigits(b);
+    }
+
+    // Power of ten of the leading digit: 1234 is 3, 0.05 is -2
+    static long leadingExponent(BigDecimal value) {
+        return (long) value.precision() - value.scale() - 1;
+    }
+
+    // a / b: rounded to the working precision, but it can still land far from the decimal point
+    static long divideDigits(BigDecimal a, BigDecimal b, int precision) {
+        long magnitude = leadingExponent(a) - leadingExponent(b);
+        return Math.abs(magnitude) + 2 + precision;
+    }
+
+    // base^exp: base sits between 10^e and 10^(e+1), so the result is between those to the exp.
+    // The digits themselves are capped by the working precision once the exact result doesn't fit.
+    static long powerDigits(BigDecimal base, int exp, int precision) {
+        if (base.signum() == 0 || exp == 0) {
+            return 1;
+        }
+        long e = leadingExponent(base);
+        long magnitude = Math.max(Math.abs(e * exp), Math.abs((e + 1) * exp));
+        long significant = Math.min((long) base.precision() * Math.abs(exp), precision);
+        return magnitude + 1 + significant;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.config.CalculatorConfig;
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import net.minecraft.client.resource.language.I18n;
+
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything an expression is evaluated against: $variables, ans and the precision.
+ *
+ * Compiled expressions are shared (there's one global cache), contexts aren't - each caller
+ * keeps its own, and a context is only ever used by one thread at a time. It also holds the
+ * reusable tokenizer, compiler and interpreter, so evaluating doesn't allocate them each time.
+ *
+ * Evaluating never changes ans. Whoever owns the context decides when a result counts as
+ * "the last answer" (see {@link #setAnswer}).
+ */
+public final class EvaluationContext {
+
+    // How many parsed expressions to keep around, for all contexts together
+    private static final int MAX_CACHED_EXPRESSIONS = 128;
+
+    // Evaluations before an expression gets compiled to a MethodHandle
+    private static final int FORMULA_COMPILE_THRESHOLD = 16;
+
+    private static final ExpressionCache<CompiledExpression> CACHE = new ExpressionCache<>(MAX_CACHED_EXPRESSIONS);
+
+    private final MathContext mc;
+    private final SymbolTable symbols;
+    private BigDecimal ans;
+    private final Tokenizer tokens = new Tokenizer();
+    private final Interpreter interpreter;
+    private final ExpressionCompiler compiler;
+    private BigDecimal[] formulaVariables = new BigDecimal[8];
+
+    public EvaluationContext(MathContext mc) {
+        this(mc, new SymbolTable(), BigDecimal.ZERO);
+    }
+
+    EvaluationContext(MathContext mc, SymbolTable symbols, BigDecimal ans) {
+        this.mc = mc;
+        this.symbols = symbols;
+        this.ans = ans;
+        this.interpreter = new Interpreter(mc);
+        this.compiler = new ExpressionCompiler(tokens, interpreter);
+    }
+
+    // Helper for translation
+    private static String tr(String key, Object... args) {
+        return I18n.translate(key, args);
+    }
+
+    public MathContext getMathContext() {
+        return mc;
+    }
+
+    public BigDecimal getAnswer() {
+        return ans;
+    }
+
+    public void setAnswer(BigDecimal ans) {
+        this.ans = ans;
+    }
+
+    /**
+     * Current value of a $variable (without the '$'), or null if it isn't set.
+     * Formula variables are brought up to date first.
+     */
+    public BigDecimal getVariable(String name) throws EvalException {
+        int slot = VariableNames.intern(VariableNames.normalize(name));
+        if (symbols.isStale(slot)) {
+            CalculatorConfig config = CalculatorConfig.getInstance();
+            applyLimits(config);
+            refreshVariable(slot, config);
+        }
+        return symbols.get(slot);
+    }
+
+    public void setVariable(String name, BigDecimal value) {
+        symbols.assign(VariableNames.intern(VariableNames.normalize(name)), value);
+    }
+
+    /**
+     * Compile and evaluate in one go. Same as {@link CompiledExpression#compile} then
+     * {@link CompiledExpression#evaluate}.
+     */
+    public BigDecimal evaluate(String expr) throws EvalException {
+        // Limits go first, constant folding already computes while compiling
+        CalculatorConfig config = CalculatorConfig.getInstance();
+        applyLimits(config);
+        return run(compile(expr), config);
+    }
+
+    /**
+     * Evaluate for a live preview: incomplete input like "(5+3" or "5*3+" is finished off
+     * instead of failing (see {@link ExpressionCompiler#compile}), and the result says so.
+     */
+    public ExpressionEvaluator.Preview evaluatePreview(String expr) throws EvalException {
+        CalculatorConfig config = CalculatorConfig.getInstance();
+        applyLimits(config);
+        CompiledExpression code = compile(expr, true);
+        return new ExpressionEvaluator.Preview(run(code, config), code.recovered);
+    }
+
+    BigDecimal evaluate(CompiledExpression code) throws EvalException {
+        CalculatorConfig config = CalculatorConfig.getInstance();
+        applyLimits(config);
+        return run(code, config);
+    }
+
+    SymbolTable symbols() {
+        return symbols;
+    }
+
+    void applyLimits(CalculatorConfig config) {
+        interpreter.setLimits(config.maxResultDigits, config.maxOperations, config.maxEvaluationMillis);
+    }
+
+    /**
+     * Compile an expression, reusing a cached one when we've seen it before.
+     * Compiled expressions only hold structure, so they stay valid when ans or $variables change.
+     * One folded at another precision is compiled again (and replaces it in the cache).
+     */
+    CompiledExpression compile(String expr) throws EvalException {
+        return compile(expr, false);
+    }
+
+    /**
+     * Same, leniently or not. A lenient entry that needed fixing up isn't good enough for a
+     * strict compile (that one has to fail), anything else works for both.
+     */
+    CompiledExpression compile(String expr, boolean lenient) throws EvalException {
+        String key = ExpressionCache.normalize(expr);
+        CompiledExpression cached = CACHE.get(key);
+        if (cached != null && cached.foldContext.equals(mc) && (lenient || !cached.recovered)) {
+            return cached;
+        }
+
+        CompiledExpression compiled = compileUncached(expr, lenient);
+        CACHE.put(key, compiled);
+        return compiled;
+    }
+
+    CompiledExpression compileUncached(String expr) throws EvalException {
+        return compileUncached(expr, false);
+    }
+
+    CompiledExpression compileUncached(String expr, boolean lenient) throws EvalException {
+        tokens.tokenize(expr);
+        return compiler.compile(lenient);
+    }
+
+    /**
+     * Run a compiled expression. Expressions that keep getting evaluated (like a price formula
+     * being watched in the search bar) are promoted to a MethodHandle, everything else is interpreted.
+     */
+    BigDecimal run(CompiledExpression code, CalculatorConfig config) throws EvalException {
+        refreshVariables(code, config);
+        interpreter.begin(code);
+
+        if (code.formula == null && !code.formulaFailed
+                && ++code.runs >= FORMULA_COMPILE_THRESHOLD
+                && config.enableCompiledFormulas) {
+            MethodHandle compiled = FormulaCompiler.compile(code);
+            code.formulaFailed = compiled == null;
+            code.formula = compiled;
+        }
+
+        MethodHandle formula = code.formula;
+        if (formula != null && config.enableCompiledFormulas) {
+            BigDecimal[] values = resolveVariables(code);
+            if (values != null) {
+                try {
+                    return FormulaCompiler.invoke(formula, interpreter, values, ans);
+                } finally {
+                    Arrays.fill(values, 0, code.slots.length, null);
+                }
+            }
+            // Missing variable - let the interpreter report it at the right spot
+        }
+
+        return interpreter.run(code, symbols, ans);
+    }
+
+    // Formula variables that went stale get recomputed first (and recursively their own inputs)
+    private void refreshVariables(CompiledExpression code, CalculatorConfig config) throws EvalException {
+        for (int slot : code.slots) {
+            if (symbols.isStale(slot)) {
+                refreshVariable(slot, config);
+            }
+        }
+    }
+
+    void refreshVariable(int slot, CalculatorConfig config) throws EvalException {
+        symbols.refresh(slot, run(symbols.formula(slot), config));
+    }
+
+    // Values for the expression's variables in name order, or null if one isn't set
+    private BigDecimal[] resolveVariables(CompiledExpression code) {
+        if (formulaVariables.length < code.slots.length) {
+            formulaVariables = new BigDecimal[code.slots.length];
+        }
+        for (int i = 0; i < code.slots.length; i++) {
+            BigDecimal value = symbols.get(code.slots[i]);
+            if (value == null) {
+                Arrays.fill(formulaVariables, 0, i, null);
+                return null;
+            }
+            formulaVariables[i] = value;
+        }
+        return formulaVariables;
+    }
+
+    /**
+     * Set a variable from an expression that was just evaluated to value. If it uses other
+     * $variables it's kept as a formula ("/calcset profit $sell - $buy") and follows them when
+     * they change. Expressions with ans, or that use the variable itself ("/calcset count $count + 1"),
+     * keep the value like before.
+     */
+    void defineVariable(String name, String expr, BigDecimal value) throws EvalException {
+        CompiledExpression code = compile(expr);
+        int slot = VariableNames.intern(VariableNames.normalize(name));
+
+        if (code.slots.length == 0 || code.usesAnswer() || code.usesSlot(slot)) {
+            symbols.assign(slot, value);
+            return;
+        }
+
+        List<String> cycle = symbols.findCycle(slot, code.slots);
+        if (cycle != null) {
+            throw new EvalException(tr("notenoughcalculator.error.circular_variable",
+                    "$" + String.join(" → $", cycle)), 0);
+        }
+        symbols.assignFormula(slot, code, expr.trim(), value);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU cache for parsed expressions.
+ *
+ * Keys are normalized with {@link #normalize(String)} so "10K*2" and "10k*2" share an entry.
+ * Thread-safe, every method locks the cache (LRU order changes on get, so even reads do).
+ * Only structure is stored here - values for ans and $variables are looked up when the
+ * cached expression is evaluated, so entries never go stale.
+ */
+public class ExpressionCache<V> {
+
+    private final int capacity;
+    private final LinkedHashMap<String, V> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ExpressionCache(int capacity) {
+        this.capacity = capacity;
+        // Access order = true makes this an LRU map
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                if (size() > ExpressionCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Build the cache key for an expression.
+     *
+     * Only ASCII letters are lowercased and only trailing whitespace is dropped.
+     * Leading and inner whitespace is kept on purpose: it shifts error positions and
+     * decides whether 'x' means multiply ("10x5" vs "10 x5").
+     */
+    public static String normalize(String expr) {
+        int end = expr.length();
+        while (end > 0 && Character.isWhitespace(expr.charAt(end - 1))) {
+            end--;
+        }
+
+        char[] chars = null;
+        for (int i = 0; i < end; i++) {
+            char c = expr.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = expr.substring(0, end).toCharArray();
+                }
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+
+        if (chars != null) {
+            return new String(chars);
+        }
+        return end == expr.length() ? expr : expr.substring(0, end);
+    }
+
+    public synchronized V get(String key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    public synchronized void put(String key, V value) {
+        entries.put(key, value);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExpressionCache[size=" + entries.size() + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
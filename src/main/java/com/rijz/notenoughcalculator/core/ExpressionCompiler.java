@@ -0,0 +1,502 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import net.minecraft.client.resource.language.I18n;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser that turns tokens into a {@link CompiledExpression}. It doesn't recurse, so
+ * nesting depth is only limited by memory (see {@link #parseExpression}).
+ *
+ * Precedence from lowest to highest: + -, then * / %, then ^ (right associative),
+ * then unary signs, then unit suffixes. Instructions are emitted in evaluation order,
+ * so a compiled expression runs left to right exactly like the old tree did.
+ *
+ * Constant parts are folded while emitting: "3dc*64+2eb" compiles to a single PUSH_CONST.
+ * Folding calls the interpreter's own operator code with the same MathContext, so a folded
+ * value is exactly what running it would give (rounding of division included). Anything that
+ * fails to fold (1/0, too big) is left in so the error shows up at run time like before.
+ * Folding has the same time limit as running, once it's used up the rest is left for run time.
+ */
+final class ExpressionCompiler {
+
+    private final Tokenizer tokens;
+    private final Interpreter folder;
+
+    // Program being built
+    private byte[] ops = new byte[32];
+    private int[] operands = new int[32];
+    private int[] positions = new int[32];
+    private int length;
+    private final List<BigDecimal> constants = new ArrayList<>();
+    private int[] slots = new int[8];
+    private int slotCount;
+    private int stackDepth;
+    private int maxStack;
+
+    // Parser work stack: what to do once the value being parsed is done, and the token it's about
+    private static final int UNIT_SUFFIX = 0;     // apply a unit right after the value, if there is one
+    private static final int NEGATE = 1;          // emit NEG for the '-' at token
+    private static final int AFTER_POWER = 2;     // look for '^'
+    private static final int EMIT_POWER = 3;      // emit POW for the '^' at token
+    private static final int AFTER_MUL_DIV = 4;   // look for '*', '/' or '%'
+    private static final int EMIT_MUL_DIV = 5;    // emit the operator at token, then look for the next one
+    private static final int AFTER_ADD_SUB = 6;   // look for '+' or '-'
+    private static final int EMIT_ADD_SUB = 7;    // emit the operator at token, then look for the next one
+    private static final int CLOSE_PAREN = 8;     // expect ')' for the '(' at token
+    private static final int CLOSE_CALL = 9;      // expect ')' for the function at token, emit CALL
+
+    private int[] frames = new int[32];
+    private int[] frameTokens = new int[32];
+    private int frameCount;
+
+    // Lenient mode finishes off incomplete input instead of failing, see compile()
+    private boolean lenient;
+    private boolean recovered;
+
+    ExpressionCompiler(Tokenizer tokens, Interpreter folder) {
+        this.tokens = tokens;
+        this.folder = folder;
+    }
+
+    private static String tr(String key, Object... args) {
+        return I18n.translate(key, args);
+    }
+
+    /**
+     * Compile the tokens currently in the tokenizer.
+     *
+     * Lenient is for previewing while typing: parens still open at the end are closed and an
+     * operator with nothing after it is left out, so "(5+3" compiles as "(5+3)" and "5*3+" as
+     * "5*3". The result is marked {@link CompiledExpression#recovered} when that happened.
+     * Input that compiles normally gives exactly the same result either way.
+     */
+    CompiledExpression compile(boolean lenient) throws EvalException {
+        this.lenient = lenient;
+        recovered = false;
+        length = 0;
+        constants.clear();
+        slotCount = 0;
+        stackDepth = 0;
+        maxStack = 0;
+        folder.beginFolding();
+
+        // Anything after the expression is ignored, same as before ("5 3" is 5)
+        parseExpression(0);
+
+        return new CompiledExpression(
+                Arrays.copyOf(ops, length),
+                Arrays.copyOf(operands, length),
+                Arrays.copyOf(positions, length),
+                constants.toArray(new BigDecimal[0]),
+                variableNames(),
+                Arrays.copyOf(slots, slotCount),
+                maxStack,
+                folder.mathContext(),
+                recovered
+        );
+    }
+
+    private void emit(byte op, int operand, int pos) {
+        if (fold(op, operand, pos)) {
+            return;
+        }
+
+        if (length == ops.length) {
+            ops = Arrays.copyOf(ops, length * 2);
+            operands = Arrays.copyOf(operands, length * 2);
+            positions = Arrays.copyOf(positions, length * 2);
+        }
+        ops[length] = op;
+        operands[length] = operand;
+        positions[length] = pos;
+        length++;
+
+        // Track how deep the operand stack gets so the interpreter can size it up front
+        switch (op) {
+            case CompiledExpression.PUSH_CONST:
+            case CompiledExpression.PUSH_VAR:
+            case CompiledExpression.PUSH_ANS:
+                stackDepth++;
+                maxStack = Math.max(maxStack, stackDepth);
+                break;
+            case CompiledExpression.ADD:
+            case CompiledExpression.SUB:
+            case CompiledExpression.MUL:
+            case CompiledExpression.DIV:
+            case CompiledExpression.MOD:
+            case CompiledExpression.POW:
+                stackDepth--;
+                break;
+            default:
+                // NEG, CALL and UNIT replace the top value
+                break;
+        }
+    }
+
+    // Is instruction i a constant push?
+    private boolean isConstant(int i) {
+        return i >= 0 && ops[i] == CompiledExpression.PUSH_CONST;
+    }
+
+    /**
+     * Try to apply op to the constant(s) just emitted instead of emitting it.
+     * Every PUSH_CONST owns its own pool entry and they're in the same order as the pushes,
+     * so the newest push always owns the last entry.
+     */
+    private boolean fold(byte op, int operand, int pos) {
+        if (folder.isOutOfTime()) {
+            // Run time starts a new budget and stops there if it's really too slow
+            return false;
+        }
+
+        try {
+            switch (op) {
+                case CompiledExpression.PUSH_CONST:
+                case CompiledExpression.PUSH_VAR:
+                case CompiledExpression.PUSH_ANS:
+                    return false;
+
+                case CompiledExpression.NEG:
+                case CompiledExpression.UNIT:
+                case CompiledExpression.CALL: {
+                    if (!isConstant(length - 1)) {
+                        return false;
+                    }
+                    int index = operands[length - 1];
+                    BigDecimal value = constants.get(index);
+                    BigDecimal folded;
+                    if (op == CompiledExpression.NEG) {
+                        folded = value.negate();
+                    } else if (op == CompiledExpression.UNIT) {
+                        folded = folder.applyUnit(operand, value, pos);
+                    } else {
+                        folded = folder.applyFunction(operand, value, pos);
+                    }
+                    constants.set(index, folded);
+                    return true;
+                }
+
+                default: {
+                    if (!isConstant(length - 1) || !isConstant(length - 2)) {
+                        return false;
+                    }
+                    BigDecimal left = constants.get(operands[length - 2]);
+                    BigDecimal right = constants.get(operands[length - 1]);
+                    BigDecimal folded = folder.applyOperator(op, left, right, pos);
+
+                    // Both pushes become one
+                    constants.set(operands[length - 2], folded);
+                    constants.remove(constants.size() - 1);
+                    length--;
+                    stackDepth--;
+                    return true;
+                }
+            }
+        } catch (EvalException | ArithmeticException e) {
+            // Leave it for run time so the error comes out in the same order as always
+            return false;
+        }
+    }
+
+    private static byte binaryOpcode(int op) {
+        switch (op) {
+            case '+': return CompiledExpression.ADD;
+            case '-': return CompiledExpression.SUB;
+            case '*': return CompiledExpression.MUL;
+            case '/': return CompiledExpression.DIV;
+            case '%': return CompiledExpression.MOD;
+            default: return CompiledExpression.POW;
+        }
+    }
+
+    // Is token i the given operator?
+    private boolean isOperator(int i, char op) {
+        return i < tokens.count && tokens.kinds[i] == Tokenizer.OP && tokens.data[i] == op;
+    }
+
+    // Is there nothing after the operator at token i?
+    private boolean isDangling(int i) {
+        return i + 1 >= tokens.count || tokens.kinds[i + 1] == Tokenizer.EOF;
+    }
+
+    // Does an operand follow the operator at token op? A dangling one is an error, or skipped when lenient
+    private boolean hasOperand(int op) throws EvalException {
+        if (!isDangling(op)) {
+            return true;
+        }
+        if (!lenient) {
+            throw new EvalException(tr("notenoughcalculator.error.unfinished_expression"), tokens.starts[op]);
+        }
+        recovered = true;
+        return false;
+    }
+
+    // Is token i the end of the input?
+    private boolean isEnd(int i) {
+        return i >= tokens.count || tokens.kinds[i] == Tokenizer.EOF;
+    }
+
+    // Is token i the ')' we're waiting for? Running out of input counts too when lenient.
+    private boolean closes(int i) {
+        if (i < tokens.count && tokens.kinds[i] == Tokenizer.RPAREN) {
+            return true;
+        }
+        if (lenient && isEnd(i)) {
+            recovered = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void push(int frame, int token) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+            frameTokens = Arrays.copyOf(frameTokens, frameCount * 2);
+        }
+        frames[frameCount] = frame;
+        frameTokens[frameCount] = token;
+        frameCount++;
+    }
+
+    // An operand of + or - (a whole * / % chain) starts here
+    private void pushAddSubOperand() {
+        push(AFTER_MUL_DIV, -1);
+        push(AFTER_POWER, -1);
+    }
+
+    // A whole expression starts here
+    private void pushExpression() {
+        push(AFTER_ADD_SUB, -1);
+        pushAddSubOperand();
+    }
+
+    /**
+     * Parse the expression starting at token pos, returning the token after it.
+     *
+     * Same grammar as a recursive descent parser, lowest precedence first:
+     *   expression = mulDiv (('+' | '-') mulDiv)*
+     *   mulDiv     = power (('*' | '/' | '%') power)*
+     *   power      = unary ('^' power)?           right associative
+     *   unary      = '-' unary | '+' unary | primary unit?
+     *   primary    = number | ans | $var | function '(' expression ')' | '(' expression ')'
+     * but instead of recursing, the "what to do once this part is parsed" steps go on an
+     * explicit stack. Parsing goes down (the operand loop) until it has a value, then pops
+     * steps until one of them needs another operand. "((((...5))))" or "-----5" nested a
+     * hundred thousand deep just makes the stack longer instead of overflowing the thread's.
+     */
+    private int parseExpression(int pos) throws EvalException {
+        frameCount = 0;
+        pushExpression();
+
+        while (true) {
+            // Down: prefix signs, then one primary
+            if (pos >= tokens.count) {
+                throw new EvalException(tr("notenoughcalculator.error.unexpected_end"), pos);
+            }
+            if (isOperator(pos, '-')) {
+                push(NEGATE, pos);
+                pos++;
+                continue;
+            }
+            if (isOperator(pos, '+')) {
+                pos++;
+                continue;
+            }
+
+            push(UNIT_SUFFIX, -1);
+            int next = parsePrimary(pos);
+            if (next < 0) {
+                // Opened a parenthesis or function call, its contents start after the '('
+                pos = -next;
+                continue;
+            }
+
+            // Up: finish whatever was waiting on this value
+            pos = -1;
+            while (pos < 0) {
+                if (frameCount == 0) {
+                    return next;
+                }
+                frameCount--;
+                int frame = frames[frameCount];
+                int token = frameTokens[frameCount];
+
+                switch (frame) {
+                    case UNIT_SUFFIX:
+                        if (next < tokens.count && tokens.kinds[next] == Tokenizer.UNIT) {
+                            emit(CompiledExpression.UNIT, tokens.data[next], tokens.starts[next]);
+                            next++;
+                        }
+                        break;
+
+                    case NEGATE:
+                        emit(CompiledExpression.NEG, 0, tokens.starts[token]);
+                        break;
+
+                    case EMIT_POWER:
+                        emit(CompiledExpression.POW, 0, tokens.starts[token]);
+                        break;
+
+                    case EMIT_MUL_DIV:
+                        emit(binaryOpcode(tokens.data[token]), 0, tokens.starts[token]);
+                        push(AFTER_MUL_DIV, -1);
+                        break;
+
+                    case EMIT_ADD_SUB:
+                        emit(binaryOpcode(tokens.data[token]), 0, tokens.starts[token]);
+                        push(AFTER_ADD_SUB, -1);
+                        break;
+
+                    case AFTER_POWER:
+                        if (isOperator(next, '^')) {
+                            if (hasOperand(next)) {
+                                // Right side is a whole power again, that's what makes it right associative
+                                push(EMIT_POWER, next);
+                                push(AFTER_POWER, -1);
+                                pos = next + 1;
+                            } else {
+                                next++;
+                            }
+                        }
+                        break;
+
+                    case AFTER_MUL_DIV:
+                        if (isOperator(next, '*') || isOperator(next, '/') || isOperator(next, '%')) {
+                            if (hasOperand(next)) {
+                                push(EMIT_MUL_DIV, next);
+                                push(AFTER_POWER, -1);
+                                pos = next + 1;
+                            } else {
+                                next++;
+                            }
+                        }
+                        break;
+
+                    case AFTER_ADD_SUB:
+                        if (isOperator(next, '+') || isOperator(next, '-')) {
+                            if (hasOperand(next)) {
+                                push(EMIT_ADD_SUB, next);
+                                pushAddSubOperand();
+                                pos = next + 1;
+                            } else {
+                                next++;
+                            }
+                        }
+                        break;
+
+                    case CLOSE_PAREN:
+                        if (!closes(next)) {
+                            throw new EvalException(tr("notenoughcalculator.error.unmatched_parenthesis"),
+                                    tokens.starts[token]);
+                        }
+                        if (!isEnd(next)) {
+                            next++;
+                        }
+                        break;
+
+                    default: // CLOSE_CALL
+                        if (!closes(next)) {
+                            throw new EvalException(tr("notenoughcalculator.error.expected_closing_paren"),
+                                    tokens.starts[token]);
+                        }
+                        emit(CompiledExpression.CALL, tokens.data[token], tokens.starts[token]);
+                        if (!isEnd(next)) {
+                            next++;
+                        }
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers, variables, functions and parentheses. Returns the token after a value, or for
+     * '(' and function calls minus the token where the inner expression starts (after pushing
+     * what closes it).
+     */
+    private int parsePrimary(int pos) throws EvalException {
+        int kind = tokens.kinds[pos];
+        int start = tokens.starts[pos];
+
+        if (kind == Tokenizer.NUM) {
+            constants.add(tokens.numberValue(pos));
+            emit(CompiledExpression.PUSH_CONST, constants.size() - 1, start);
+            return pos + 1;
+        }
+
+        if (kind == Tokenizer.ANS) {
+            emit(CompiledExpression.PUSH_ANS, 0, start);
+            return pos + 1;
+        }
+
+        if (kind == Tokenizer.VAR) {
+            int slot = VariableNames.intern(tokens.getInput(), tokens.data[pos], tokens.ends[pos]);
+            emit(CompiledExpression.PUSH_VAR, slotIndex(slot), start);
+            return pos + 1;
+        }
+
+        if (kind == Tokenizer.FUNC) {
+            int func = tokens.data[pos];
+            if (pos + 1 >= tokens.count || tokens.kinds[pos + 1] != Tokenizer.LPAREN) {
+                throw new EvalException(tr("notenoughcalculator.error.expected_parenthesis",
+                        Tokenizer.FUNCTION_NAMES[func]), start);
+            }
+            push(CLOSE_CALL, pos);
+            pushExpression();
+            return -(pos + 2);
+        }
+
+        if (kind == Tokenizer.LPAREN) {
+            push(CLOSE_PAREN, pos);
+            pushExpression();
+            return -(pos + 1);
+        }
+
+        throw new EvalException(tr("notenoughcalculator.error.unexpected_token", tokens.text(pos)), start);
+    }
+
+    // Same variable used twice shares one entry
+    private int slotIndex(int slot) {
+        for (int i = 0; i < slotCount; i++) {
+            if (slots[i] == slot) {
+                return i;
+            }
+        }
+        if (slotCount == slots.length) {
+            slots = Arrays.copyOf(slots, slotCount * 2);
+        }
+        slots[slotCount] = slot;
+        return slotCount++;
+    }
+
+    private String[] variableNames() {
+        String[] names = new String[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            names[i] = VariableNames.name(slots[i]);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+
+/**
+ * Second tier for hot expressions: turns a {@link CompiledExpression} into one MethodHandle
+ * the JVM can optimize as a whole, instead of going through the interpreter's dispatch loop.
+ *
+ * The handle has the type (Interpreter, BigDecimal[] variables, BigDecimal ans) -> BigDecimal,
+ * where variables[i] is the value of code.slots[i]. Operators, units and functions call straight
+ * into the given interpreter, so results, errors, precision and digit limits are exactly the same
+ * as interpreting in that context - and the same handle works for every context.
+ * Operands are evaluated left to right (foldArguments runs the left side first), so when
+ * an expression has two errors the same one is reported.
+ */
+final class FormulaCompiler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FormulaCompiler.class);
+
+    // Deeply nested handles get slow to build and don't pay off for one-off expressions
+    private static final int MAX_INSTRUCTIONS = 64;
+
+    static final MethodType FORMULA_TYPE = MethodType.methodType(
+            BigDecimal.class, Interpreter.class, BigDecimal[].class, BigDecimal.class);
+
+    // (value, interpreter, variables, ans), the shape binary() folds the left side into
+    private static final MethodType LEFT_FIRST_TYPE = FORMULA_TYPE.insertParameterTypes(0, BigDecimal.class);
+
+    private static final MethodHandle NEGATE;
+    private static final MethodHandle APPLY_OPERATOR;
+    private static final MethodHandle APPLY_UNIT;
+    private static final MethodHandle APPLY_FUNCTION;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            NEGATE = lookup.findVirtual(BigDecimal.class, "negate", MethodType.methodType(BigDecimal.class));
+            APPLY_OPERATOR = lookup.findVirtual(Interpreter.class, "applyOperator", MethodType.methodType(
+                    BigDecimal.class, byte.class, BigDecimal.class, BigDecimal.class, int.class));
+            APPLY_UNIT = lookup.findVirtual(Interpreter.class, "applyUnit", MethodType.methodType(
+                    BigDecimal.class, int.class, BigDecimal.class, int.class));
+            APPLY_FUNCTION = lookup.findVirtual(Interpreter.class, "applyFunction", MethodType.methodType(
+                    BigDecimal.class, int.class, BigDecimal.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private FormulaCompiler() {
+    }
+
+    /**
+     * Build a handle for the expression, or null if it isn't worth it or can't be done.
+     * Callers just keep interpreting when this returns null.
+     */
+    static MethodHandle compile(CompiledExpression code) {
+        if (code.length() > MAX_INSTRUCTIONS) {
+            return null;
+        }
+
+        try {
+            // Same stack discipline as the interpreter, but the stack holds handles
+            MethodHandle[] stack = new MethodHandle[code.maxStack];
+            int sp = 0;
+
+            for (int pc = 0; pc < code.length(); pc++) {
+                int operand = code.operands[pc];
+                int pos = code.positions[pc];
+
+                switch (code.ops[pc]) {
+                    case CompiledExpression.PUSH_CONST:
+                        stack[sp++] = constant(code.constants[operand]);
+                        break;
+                    case CompiledExpression.PUSH_VAR:
+                        stack[sp++] = variable(operand);
+                        break;
+                    case CompiledExpression.PUSH_ANS:
+                        stack[sp++] = MethodHandles.dropArguments(
+                                MethodHandles.identity(BigDecimal.class), 0, Interpreter.class, BigDecimal[].class);
+                        break;
+                    case CompiledExpression.NEG:
+                        stack[sp - 1] = MethodHandles.filterReturnValue(stack[sp - 1], NEGATE);
+                        break;
+                    case CompiledExpression.UNIT:
+                        stack[sp - 1] = unary(unit(operand, pos), stack[sp - 1]);
+                        break;
+                    case CompiledExpression.CALL:
+                        stack[sp - 1] = unary(function(operand, pos), stack[sp - 1]);
+                        break;
+                    default:
+                        sp--;
+                        stack[sp - 1] = binary(operator(code.ops[pc], pos), stack[sp - 1], stack[sp]);
+                        break;
+                }
+            }
+
+            return stack[0].asType(FORMULA_TYPE);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Couldn't compile formula, interpreting it instead: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Run a compiled handle. Rethrows the interpreter's errors unchanged.
+     */
+    static BigDecimal invoke(MethodHandle formula, Interpreter interpreter, BigDecimal[] variables,
+                             BigDecimal ans) throws EvalException {
+        try {
+            return (BigDecimal) formula.invokeExact(interpreter, variables, ans);
+        } catch (EvalException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // Nothing in the tree throws checked exceptions besides EvalException
+            throw new IllegalStateException(t);
+        }
+    }
+
+    // (interpreter, variables, ans) -> value
+    private static MethodHandle constant(BigDecimal value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(BigDecimal.class, value),
+                0, Interpreter.class, BigDecimal[].class, BigDecimal.class);
+    }
+
+    // (interpreter, variables, ans) -> variables[slot]
+    private static MethodHandle variable(int slot) {
+        MethodHandle element = MethodHandles.insertArguments(
+                MethodHandles.arrayElementGetter(BigDecimal[].class), 1, slot);
+        element = MethodHandles.dropArguments(element, 0, Interpreter.class);
+        return MethodHandles.dropArguments(element, 2, BigDecimal.class);
+    }
+
+    // (interpreter, BigDecimal) -> BigDecimal, with the function and error position baked in
+    private static MethodHandle function(int func, int pos) {
+        MethodHandle bound = MethodHandles.insertArguments(APPLY_FUNCTION, 1, func);
+        return MethodHandles.insertArguments(bound, 2, pos);
+    }
+
+    // (interpreter, BigDecimal) -> BigDecimal
+    private static MethodHandle unit(int unit, int pos) {
+        MethodHandle bound = MethodHandles.insertArguments(APPLY_UNIT, 1, unit);
+        return MethodHandles.insertArguments(bound, 2, pos);
+    }
+
+    // (interpreter, BigDecimal, BigDecimal) -> BigDecimal
+    private static MethodHandle operator(byte op, int pos) {
+        // Goes through the interpreter even for + - * so the digit budget applies here too
+        MethodHandle bound = MethodHandles.insertArguments(APPLY_OPERATOR, 1, op);
+        return MethodHandles.insertArguments(bound, 3, pos);
+    }
+
+    // Apply an (interpreter, value) -> value handle to the result of an operand handle
+    private static MethodHandle unary(MethodHandle op, MethodHandle operand) {
+        // (interpreter, interpreter, variables, ans) -> op(interpreter, operand(interpreter, variables, ans))
+        MethodHandle combined = MethodHandles.collectArguments(op, 1, operand);
+        // Both interpreters are the same one
+        return MethodHandles.permuteArguments(combined, FORMULA_TYPE, 0, 0, 1, 2);
+    }
+
+    // Combine two operand handles with an operator, left side first
+    private static MethodHandle binary(MethodHandle op, MethodHandle left, MethodHandle right) {
+        // (interpreter, l, interpreter, variables, ans) -> op(interpreter, l, right(interpreter, variables, ans))
+        MethodHandle withRight = MethodHandles.collectArguments(op, 2, right);
+        // (l, interpreter, variables, ans)
+        MethodHandle leftFirst = MethodHandles.permuteArguments(withRight, LEFT_FIRST_TYPE, 1, 0, 1, 2, 3);
+        // (interpreter, variables, ans) -> leftFirst(left(interpreter, variables, ans), interpreter, variables, ans)
+        return MethodHandles.foldArguments(leftFirst, left);
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.TooExpensiveException;
+import net.minecraft.client.resource.language.I18n;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Runs {@link CompiledExpression}s on a reusable operand stack.
+ *
+ * Most inputs are whole numbers ("64*160*3dc"), so every expression first runs on a
+ * long stack and only runs again on a BigDecimal stack if that can't stay exact.
+ * The long pass only accepts values BigDecimal would keep at scale 0 and gives up on
+ * anything that would change the scale, so both passes produce the exact same BigDecimal.
+ *
+ * Every evaluation has a budget (see {@link #setLimits}): too many instructions, a result
+ * predicted by {@link CostModel} to have too many digits, or running past the time limit
+ * stops it with a {@link TooExpensiveException} instead of freezing the game.
+ * The clock is only checked in the BigDecimal pass, where one step can take a while. Every step
+ * of the long pass is a few long operations (a power is at most ten squarings, a square root
+ * corrects the double estimate by a step or so), so the instruction limit bounds that pass alone.
+ */
+final class Interpreter {
+
+    private final MathContext mc;
+    private long[] longStack = new long[16];
+    private BigDecimal[] decimalStack = new BigDecimal[16];
+
+    // Budget, 0 or less means no limit
+    private long maxDigits = 0;
+    private int maxOperations = 0;
+    private long maxNanos = 0;
+    private long deadline = 0;
+
+    Interpreter(MathContext mc) {
+        this.mc = mc;
+    }
+
+    MathContext mathContext() {
+        return mc;
+    }
+
+    void setLimits(int maxDigits, int maxOperations, int maxMillis) {
+        this.maxDigits = maxDigits;
+        this.maxOperations = maxOperations;
+        this.maxNanos = maxMillis * 1_000_000L;
+    }
+
+    /**
+     * Start the budget for one evaluation. Call before running code, in either tier.
+     */
+    void begin(CompiledExpression code) throws EvalException {
+        // Every instruction runs exactly once, so the operation count is known up front
+        if (maxOperations > 0 && code.length() > maxOperations) {
+            throw tooExpensive(0);
+        }
+        deadline = System.nanoTime() + maxNanos;
+    }
+
+    /**
+     * Start the time budget for constant folding, which computes while compiling - before
+     * there's any code to {@link #begin} with.
+     */
+    void beginFolding() {
+        deadline = System.nanoTime() + maxNanos;
+    }
+
+    boolean isOutOfTime() {
+        return maxNanos > 0 && System.nanoTime() - deadline > 0;
+    }
+
+    private static TooExpensiveException tooExpensive(int pos) {
+        return new TooExpensiveException(tr("notenoughcalculator.error.too_expensive"), pos);
+    }
+
+    private static EvalException undefinedVariable(CompiledExpression code, int pc) {
+        return new EvalException(tr("notenoughcalculator.error.undefined_variable",
+                code.names[code.operands[pc]]), code.positions[pc]);
+    }
+
+    private void checkDigits(long predicted, int pos) throws EvalException {
+        if (maxDigits > 0 && predicted > maxDigits) {
+            throw tooExpensive(pos);
+        }
+    }
+
+    private static String tr(String key, Object... args) {
+        return I18n.translate(key, args);
+    }
+
+    // Thrown by the long pass to fall back to BigDecimal. Shared instance without a stack trace,
+    // so giving up costs nothing.
+    private static final class NotExact extends RuntimeException {
+        NotExact() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final NotExact NOT_EXACT = new NotExact();
+
+    // Can this value go through the long pass without changing the result?
+    static boolean isExactLong(BigDecimal value) {
+        return value.scale() == 0 && value.precision() <= 18;
+    }
+
+    private static long toExactLong(BigDecimal value) {
+        if (!isExactLong(value)) {
+            throw NOT_EXACT;
+        }
+        return value.longValue();
+    }
+
+    BigDecimal run(CompiledExpression code, SymbolTable symbols, BigDecimal ans) throws EvalException {
+        if (longStack.length < code.maxStack) {
+            longStack = new long[code.maxStack];
+            decimalStack = new BigDecimal[code.maxStack];
+        }
+
+        try {
+            return BigDecimal.valueOf(runLong(code, symbols, ans));
+        } catch (NotExact e) {
+            try {
+                return runDecimal(code, symbols, ans);
+            } finally {
+                // Don't keep big numbers alive between evaluations
+                Arrays.fill(decimalStack, 0, code.maxStack, null);
+            }
+        }
+    }
+
+    // No clock here, see the class comment: keep every step constant time
+    private long runLong(CompiledExpression code, SymbolTable symbols, BigDecimal ans) throws EvalException {
+        long[] stack = longStack;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length(); pc++) {
+            switch (code.ops[pc]) {
+                case CompiledExpression.PUSH_CONST: {
+                    int index = code.operands[pc];
+                    if (!code.exactLongConstants[index]) {
+                        throw NOT_EXACT;
+                    }
+                    stack[sp++] = code.longConstants[index];
+                    break;
+                }
+                case CompiledExpression.PUSH_VAR: {
+                    int slot = code.slots[code.operands[pc]];
+                    if (!symbols.isExactLong(slot)) {
+                        if (symbols.get(slot) == null) {
+                            throw undefinedVariable(code, pc);
+                        }
+                        throw NOT_EXACT;
+                    }
+                    stack[sp++] = symbols.getLong(slot);
+                    break;
+                }
+                case CompiledExpression.PUSH_ANS:
+                    stack[sp++] = toExactLong(ans);
+                    break;
+                case CompiledExpression.NEG:
+                    if (stack[sp - 1] == Long.MIN_VALUE) {
+                        throw NOT_EXACT;
+                    }
+                    stack[sp - 1] = -stack[sp - 1];
+                    break;
+                case CompiledExpression.UNIT:
+                    stack[sp - 1] = multiplyExact(stack[sp - 1], Tokenizer.UNIT_LONG_VALUES[code.operands[pc]]);
+                    break;
+                case CompiledExpression.CALL:
+                    stack[sp - 1] = applyFunctionLong(code.operands[pc], stack[sp - 1]);
+                    break;
+                default:
+                    sp--;
+                    stack[sp - 1] = applyOperatorLong(code.ops[pc], stack[sp - 1], stack[sp], code.positions[pc]);
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    private BigDecimal runDecimal(CompiledExpression code, SymbolTable symbols, BigDecimal ans) throws EvalException {
+        BigDecimal[] stack = decimalStack;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length(); pc++) {
+            // Digit limits keep each step bounded, this catches many slow steps in a row
+            if (isOutOfTime()) {
+                throw tooExpensive(code.positions[pc]);
+            }
+
+            switch (code.ops[pc]) {
+                case CompiledExpression.PUSH_CONST:
+                    stack[sp++] = code.constants[code.operands[pc]];
+                    break;
+                case CompiledExpression.PUSH_VAR: {
+                    BigDecimal value = symbols.get(code.slots[code.operands[pc]]);
+                    if (value == null) {
+                        throw undefinedVariable(code, pc);
+                    }
+                    stack[sp++] = value;
+                    break;
+                }
+                case CompiledExpression.PUSH_ANS:
+                    stack[sp++] = ans;
+                    break;
+                case CompiledExpression.NEG:
+                    stack[sp - 1] = stack[sp - 1].negate();
+                    break;
+                case CompiledExpression.UNIT:
+                    stack[sp - 1] = applyUnit(code.operands[pc], stack[sp - 1], code.positions[pc]);
+                    break;
+                case CompiledExpression.CALL:
+                    stack[sp - 1] = applyFunction(code.operands[pc], stack[sp - 1], code.positions[pc]);
+                    break;
+                default:
+                    sp--;
+                    stack[sp - 1] = applyOperator(code.ops[pc], stack[sp - 1], stack[sp], code.positions[pc]);
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    // Apply a binary operator
+    BigDecimal applyOperator(byte op, BigDecimal left, BigDecimal right, int pos) throws EvalException {
+        switch (op) {
+            // Use unlimited precision for add/subtract/multiply
+            case CompiledExpression.ADD:
+                checkDigits(CostModel.addDigits(left, right), pos);
+                return left.add(right);
+
+            case CompiledExpression.SUB:
+                checkDigits(CostModel.addDigits(left, right), pos);
+                return left.subtract(right);
+
+            case CompiledExpression.MUL:
+                checkDigits(CostModel.multiplyDigits(left, right), pos);
+                return left.multiply(right);
+
+            case CompiledExpression.DIV:
+                if (right.compareTo(BigDecimal.ZERO) == 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.division_by_zero"), pos);
+                }
+                checkDigits(CostModel.divideDigits(left, right, mc.getPrecision()), pos);
+                // Only use MathContext for division
+                return left.divide(right, mc).stripTrailingZeros();
+
+            case CompiledExpression.MOD:
+                if (right.compareTo(BigDecimal.ZERO) == 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.modulo_by_zero"), pos);
+                }
+                return left.remainder(right);
+
+            default:
+                // Don't allow crazy huge exponents
+                if (right.abs().compareTo(new BigDecimal("1000")) > 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.exponent_too_large"), pos);
+                }
+
+                // Can't do negative^decimal
+                if (left.compareTo(BigDecimal.ZERO) < 0 && !isInteger(right)) {
+                    throw new EvalException(tr("notenoughcalculator.error.negative_power"), pos);
+                }
+
+                try {
+                    int exp = right.intValueExact();
+                    if (NumericKernel.isTooLarge(left, exp)) {
+                        throw new EvalException(tr("notenoughcalculator.error.exponent_too_large"), pos);
+                    }
+                    checkDigits(CostModel.powerDigits(left, exp, mc.getPrecision()), pos);
+                    return NumericKernel.pow(left, exp, mc);
+                } catch (ArithmeticException e) {
+                    throw new EvalException(tr("notenoughcalculator.error.negative_power"), pos);
+                }
+        }
+    }
+
+    // Apply a unit suffix
+    BigDecimal applyUnit(int unit, BigDecimal value, int pos) throws EvalException {
+        BigDecimal multiplier = Tokenizer.UNIT_VALUES[unit];
+        checkDigits(CostModel.multiplyDigits(value, multiplier), pos);
+        return value.multiply(multiplier);
+    }
+
+    // Apply math functions
+    BigDecimal applyFunction(int func, BigDecimal arg, int pos) throws EvalException {
+        switch (func) {
+            case Tokenizer.SQRT:
+                if (arg.compareTo(BigDecimal.ZERO) < 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.negative_sqrt"), pos);
+                }
+                return NumericKernel.sqrt(arg, mc);
+
+            case Tokenizer.ABS:
+                return arg.abs();
+
+            case Tokenizer.FLOOR:
+                return arg.setScale(0, RoundingMode.FLOOR);
+
+            case Tokenizer.CEIL:
+                return arg.setScale(0, RoundingMode.CEILING);
+
+            case Tokenizer.ROUND:
+                return arg.setScale(0, RoundingMode.HALF_UP);
+
+            default:
+                throw new EvalException(tr("notenoughcalculator.error.unknown_function",
+                        Tokenizer.FUNCTION_NAMES[func]), pos);
+        }
+    }
+
+    private static boolean isInteger(BigDecimal value) {
+        return value.stripTrailingZeros().scale() <= 0;
+    }
+
+    // Long version of applyOperator, same errors in the same order
+    private static long applyOperatorLong(byte op, long left, long right, int pos) throws EvalException {
+        switch (op) {
+            case CompiledExpression.ADD:
+                return addExact(left, right);
+
+            case CompiledExpression.SUB:
+                return subtractExact(left, right);
+
+            case CompiledExpression.MUL:
+                return multiplyExact(left, right);
+
+            case CompiledExpression.DIV:
+                if (right == 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.division_by_zero"), pos);
+                }
+                if (left % right != 0 || (left == Long.MIN_VALUE && right == -1)) {
+                    throw NOT_EXACT;
+                }
+                long quotient = left / right;
+                // BigDecimal strips trailing zeros after dividing (100/1 -> 1E+2), keep that exact
+                if (quotient % 10 == 0 && quotient != 0) {
+                    throw NOT_EXACT;
+                }
+                return quotient;
+
+            case CompiledExpression.MOD:
+                if (right == 0) {
+                    throw new EvalException(tr("notenoughcalculator.error.modulo_by_zero"), pos);
+                }
+                return left % right;
+
+            default:
+                if (right > 1000 || right < -1000) {
+                    throw new EvalException(tr("notenoughcalculator.error.exponent_too_large"), pos);
+                }
+                if (right < 0) {
+                    throw NOT_EXACT;
+                }
+                return powExact(left, (int) right);
+        }
+    }
+
+    // Long version of applyFunction
+    private static long applyFunctionLong(int func, long value) {
+        switch (func) {
+            case Tokenizer.SQRT:
+                // Perfect squares stay whole, anything else (or negative, for the error) needs BigDecimal
+                long root = NumericKernel.sqrtExact(value);
+                if (root < 0) {
+                    throw NOT_EXACT;
+                }
+                return root;
+
+            case Tokenizer.ABS:
+                if (value == Long.MIN_VALUE) {
+                    throw NOT_EXACT;
+                }
+                return Math.abs(value);
+
+            // Rounding a whole number does nothing
+            case Tokenizer.FLOOR:
+            case Tokenizer.CEIL:
+            case Tokenizer.ROUND:
+                return value;
+
+            default:
+                throw NOT_EXACT;
+        }
+    }
+
+    private static long addExact(long a, long b) {
+        long r = a + b;
+        // Overflow if both operands have the opposite sign of the result
+        if (((a ^ r) & (b ^ r)) < 0) {
+            throw NOT_EXACT;
+        }
+        return r;
+    }
+
+    private static long subtractExact(long a, long b) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            throw NOT_EXACT;
+        }
+        return r;
+    }
+
+    private static long multiplyExact(long a, long b) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        // No overflow when the high half is just the sign extension of the low half
+        if ((hi == 0 && lo >= 0) || (hi == -1 && lo < 0)) {
+            return lo;
+        }
+        throw NOT_EXACT;
+    }
+
+    // Exponentiation by squaring, bails out on overflow
+    private static long powExact(long base, int exp) {
+        long result = 1;
+        while (exp > 0) {
+            if ((exp & 1) != 0) {
+                result = multiplyExact(result, base);
+            }
+            exp >>= 1;
+            if (exp > 0) {
+                base = multiplyExact(base, base);
+            }
+        }
+        return result;
+    }
+}
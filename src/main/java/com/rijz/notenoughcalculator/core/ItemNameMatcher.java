@@ -0,0 +1,201 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Knows the words item names are made of ("diamond", "sword", "chestplate"...) and checks
+ * whether some text ends with one, which is how {@link CalculationClassifier} tells "5 diamond"
+ * (a search) from a calculation.
+ *
+ * The words are kept in a trie of reversed words, so the check walks backwards from the end of
+ * the text and stops as soon as no word can match - a handful of steps, however many items there
+ * are. Built once from the item registry and REI's entries (see ItemNameIndex), rebuilt when
+ * resources reload.
+ */
+public final class ItemNameMatcher {
+
+    // Shorter words ("of", "on") are too likely to end something that isn't an item search
+    private static final int MIN_WORD_LENGTH = 3;
+
+    // Known before any registry is loaded, and kept after (some aren't whole words of an item name)
+    private static final String[] DEFAULT_WORDS = {
+            "sword", "pickaxe", "axe", "shovel", "hoe", "helmet", "chestplate", "leggings", "boots",
+            "diamond", "iron", "gold", "stone", "wood", "bow", "arrow", "block", "ore", "ingot", "coal",
+            "redstone", "lapis", "emerald", "netherite", "pearl", "eye", "blaze", "slime", "magma",
+            "prismarine", "quartz", "obsidian", "glowstone", "hopper", "chest", "furnace", "crafting",
+            "enchant", "potion", "book", "bed"
+    };
+
+    // Never item words, even if some item (or translation) has them: "ans" is the last answer
+    private static final Set<String> RESERVED = Set.of("ans", "sqrt", "abs", "floor", "ceil", "round");
+
+    public static final ItemNameMatcher DEFAULT = fromNames(List.of());
+
+    // Node 0 is the root. Children are a linked list: firstChild, then nextSibling.
+    private final char[] labels;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final boolean[] terminal;
+    private final int wordCount;
+
+    private ItemNameMatcher(char[] labels, int[] firstChild, int[] nextSibling, boolean[] terminal, int wordCount) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.terminal = terminal;
+        this.wordCount = wordCount;
+    }
+
+    /**
+     * Matcher for the words in these names plus the built-in ones. Names are split on anything
+     * that isn't a letter, so both "Diamond Sword" and "diamond_sword" work.
+     */
+    public static ItemNameMatcher fromNames(Iterable<String> names) {
+        Builder builder = new Builder();
+        for (String word : DEFAULT_WORDS) {
+            builder.add(word, 0, word.length());
+        }
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length()) {
+                while (i < name.length() && !Character.isLetter(name.charAt(i))) {
+                    i++;
+                }
+                int start = i;
+                while (i < name.length() && Character.isLetter(name.charAt(i))) {
+                    i++;
+                }
+                if (i - start >= MIN_WORD_LENGTH) {
+                    builder.add(name, start, i);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Number of different words.
+     */
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * Does text[from, to) end with one of the words? Case-insensitive.
+     */
+    public boolean endsWithName(CharSequence text, int from, int to) {
+        int node = 0;
+        for (int i = to - 1; i >= from; i--) {
+            node = child(node, toLower(text.charAt(i)));
+            if (node < 0) {
+                return false;
+            }
+            if (terminal[node]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int child(int node, char c) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (labels[child] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private static char toLower(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    // Grows the trie arrays while adding words, then trims them into a matcher
+    private static final class Builder {
+        private char[] labels = new char[256];
+        private int[] firstChild = new int[256];
+        private int[] nextSibling = new int[256];
+        private boolean[] terminal = new boolean[256];
+        private int nodes = 1;
+        private int words = 0;
+
+        Builder() {
+            firstChild[0] = -1;
+            nextSibling[0] = -1;
+        }
+
+        void add(String name, int from, int to) {
+            if (RESERVED.contains(name.substring(from, to).toLowerCase(Locale.ROOT))) {
+                return;
+            }
+            int node = 0;
+            for (int i = to - 1; i >= from; i--) {
+                char c = toLower(name.charAt(i));
+                int next = -1;
+                for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                    if (labels[child] == c) {
+                        next = child;
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    next = newNode(c);
+                    nextSibling[next] = firstChild[node];
+                    firstChild[node] = next;
+                }
+                node = next;
+            }
+            if (!terminal[node]) {
+                terminal[node] = true;
+                words++;
+            }
+        }
+
+        private int newNode(char c) {
+            if (nodes == labels.length) {
+                int capacity = nodes * 2;
+                labels = Arrays.copyOf(labels, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                terminal = Arrays.copyOf(terminal, capacity);
+            }
+            int node = nodes++;
+            labels[node] = c;
+            firstChild[node] = -1;
+            nextSibling[node] = -1;
+            return node;
+        }
+
+        ItemNameMatcher build() {
+            return new ItemNameMatcher(Arrays.copyOf(labels, nodes), Arrays.copyOf(firstChild, nodes),
+                    Arrays.copyOf(nextSibling, nodes), Arrays.copyOf(terminal, nodes), words);
+        }
+    }
+}
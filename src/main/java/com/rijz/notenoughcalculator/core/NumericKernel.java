@@ -0,0 +1,109 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Square roots and integer powers at full precision.
+ *
+ * sqrt used to go through Math.sqrt(double), which is only good for ~16 digits and
+ * gets wrong past 2^53 ("sqrt(99999999999999999^2)" wasn't a whole number). Now perfect
+ * squares come out exact and everything else is computed to the evaluator's precision.
+ */
+final class NumericKernel {
+
+    // Powers whose result would need more digits than this are rejected before computing anything
+    private static final long MAX_RESULT_DIGITS = 100_000_000L;
+
+    // floor(sqrt(Long.MAX_VALUE)), anything bigger squared overflows
+    private static final long MAX_LONG_ROOT = 3037000499L;
+
+    private NumericKernel() {
+    }
+
+    /**
+     * Square root of a non-negative number. Whole perfect squares are exact with scale 0
+     * (sqrt(1728*1728) is 1728), other values are rounded to mc.
+     */
+    static BigDecimal sqrt(BigDecimal value, MathContext mc) {
+        if (value.signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        BigDecimal stripped = value.stripTrailingZeros();
+        if (stripped.scale() <= 0) {
+            BigInteger n = stripped.toBigIntegerExact();
+            BigInteger root = n.sqrt();
+            if (root.multiply(root).equals(n)) {
+                return new BigDecimal(root);
+            }
+        }
+
+        // Newton iteration, and exact for decimal squares like 2.25
+        return value.sqrt(mc);
+    }
+
+    /**
+     * Integer square root of a long, or -1 if it isn't a perfect square.
+     * Gives the same value as {@link #sqrt} for whole numbers.
+     */
+    static long sqrtExact(long value) {
+        if (value < 0) {
+            return -1;
+        }
+        // The double estimate can be off by one either way for big values. Near Long.MAX_VALUE
+        // it rounds up past the biggest root there is, and squaring that would overflow.
+        long root = Math.min((long) Math.sqrt((double) value), MAX_LONG_ROOT);
+        while (root * root > value) {
+            root--;
+        }
+        while (root < MAX_LONG_ROOT && (root + 1) * (root + 1) <= value) {
+            root++;
+        }
+        return root * root == value ? root : -1;
+    }
+
+    /**
+     * Early magnitude check for base^exp: base has about (precision - scale) digits before
+     * the point, so the result has that many times |exp|. Way past anything you could
+     * display, and BigDecimal would just spin or overflow its scale trying.
+     */
+    static boolean isTooLarge(BigDecimal base, int exp) {
+        if (base.signum() == 0) {
+            return false;
+        }
+        long magnitude = (long) (base.precision() - base.scale()) * Math.abs(exp);
+        return Math.abs(magnitude) > MAX_RESULT_DIGITS;
+    }
+
+    /**
+     * base^exp. Exact when the result fits in mc's precision, otherwise rounded to mc
+     * the same way BigDecimal.pow(exp, mc) does.
+     */
+    static BigDecimal pow(BigDecimal base, int exp, MathContext mc) {
+        // Small enough to be exact: squaring on the unscaled BigInteger, no rounding at all
+        if (exp > 0 && (long) base.precision() * exp <= mc.getPrecision()) {
+            return base.pow(exp);
+        }
+        return base.pow(exp, mc);
+    }
+}
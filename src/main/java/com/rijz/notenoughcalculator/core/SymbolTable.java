@@ -0,0 +1,270 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Values of $variables, stored by slot number (see {@link VariableNames}).
+ *
+ * Compiled expressions remember the slot, so looking a variable up while evaluating is just an
+ * array read - no lowercasing, no hashing. Values that fit the interpreter's long fast path are
+ * also kept as longs. A slot for a name that was never set here just holds null (that's how
+ * "$typo" still gives undefined_variable). Every {@link EvaluationContext} has its own table.
+ *
+ * A slot can also hold a formula ("/calcset profit $sell - $buy"). The value is memoized and
+ * only marked stale when something it depends on changes, so setting $buy recomputes $profit
+ * (and whatever uses $profit) the next time it's read, and nothing else. The context does the
+ * recomputing - this class just keeps the dependency graph and the stale flags.
+ */
+final class SymbolTable {
+
+    // All arrays have the same length, slots past the end just aren't set
+    private BigDecimal[] values = new BigDecimal[16];
+    private long[] longValues = new long[16];
+    private boolean[] exactLong = new boolean[16];
+
+    // Formula variables: the compiled formula, what it was typed as, and whether the value is out of date.
+    // Dependencies are the formula's own slots, dependents are kept per slot so invalidating is a walk down.
+    private CompiledExpression[] formulas = new CompiledExpression[16];
+    private String[] formulaSources = new String[16];
+    private boolean[] stale = new boolean[16];
+    private int[][] dependents = new int[16][];
+    private int[] dependentCounts = new int[16];
+
+    SymbolTable() {
+    }
+
+    /**
+     * Snapshot of the current values, for evaluating on other threads. Formulas aren't copied,
+     * so refresh any stale ones first - the copy just has their memoized values.
+     */
+    SymbolTable(SymbolTable other) {
+        int capacity = other.values.length;
+        this.values = other.values.clone();
+        this.longValues = other.longValues.clone();
+        this.exactLong = other.exactLong.clone();
+        this.formulas = new CompiledExpression[capacity];
+        this.formulaSources = new String[capacity];
+        this.stale = new boolean[capacity];
+        this.dependents = new int[capacity][];
+        this.dependentCounts = new int[capacity];
+    }
+
+    /**
+     * Number of slots this table has room for. Slots at or past it aren't set.
+     */
+    int capacity() {
+        return values.length;
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < values.length) {
+            return;
+        }
+        int capacity = Math.max(values.length * 2, slot + 1);
+        values = Arrays.copyOf(values, capacity);
+        longValues = Arrays.copyOf(longValues, capacity);
+        exactLong = Arrays.copyOf(exactLong, capacity);
+        formulas = Arrays.copyOf(formulas, capacity);
+        formulaSources = Arrays.copyOf(formulaSources, capacity);
+        stale = Arrays.copyOf(stale, capacity);
+        dependents = Arrays.copyOf(dependents, capacity);
+        dependentCounts = Arrays.copyOf(dependentCounts, capacity);
+    }
+
+    /**
+     * Value in a slot, or null if the variable isn't set.
+     */
+    BigDecimal get(int slot) {
+        return slot < values.length ? values[slot] : null;
+    }
+
+    boolean isExactLong(int slot) {
+        return slot < exactLong.length && exactLong[slot];
+    }
+
+    long getLong(int slot) {
+        return longValues[slot];
+    }
+
+    /**
+     * Store a value as is. Used for memoizing formula results, see {@link #assign} for setting a variable.
+     */
+    void set(int slot, BigDecimal value) {
+        ensureCapacity(slot);
+        values[slot] = value;
+        exactLong[slot] = value != null && Interpreter.isExactLong(value);
+        longValues[slot] = exactLong[slot] ? value.longValue() : 0;
+    }
+
+    /**
+     * Give a variable a fixed value. Drops its formula if it had one and invalidates everything
+     * that depends on it.
+     */
+    void assign(int slot, BigDecimal value) {
+        ensureCapacity(slot);
+        removeFormula(slot);
+        set(slot, value);
+        invalidateDependents(slot);
+    }
+
+    /**
+     * Make a variable a formula, with its current value already computed.
+     * Check {@link #findCycle} first, a cycle here would make reading it loop forever.
+     */
+    void assignFormula(int slot, CompiledExpression formula, String source, BigDecimal value) {
+        ensureCapacity(slot);
+        removeFormula(slot);
+        formulas[slot] = formula;
+        formulaSources[slot] = source;
+        for (int dependency : formula.slots) {
+            addDependent(dependency, slot);
+        }
+        set(slot, value);
+        invalidateDependents(slot);
+    }
+
+    CompiledExpression formula(int slot) {
+        return slot < formulas.length ? formulas[slot] : null;
+    }
+
+    String formulaSource(int slot) {
+        return slot < formulaSources.length ? formulaSources[slot] : null;
+    }
+
+    /**
+     * The slot is a formula and something it uses changed since its value was computed.
+     */
+    boolean isStale(int slot) {
+        return slot < stale.length && stale[slot];
+    }
+
+    /**
+     * Store a recomputed formula value.
+     */
+    void refresh(int slot, BigDecimal value) {
+        set(slot, value);
+        stale[slot] = false;
+    }
+
+    /**
+     * If a formula for slot that reads the given slots would depend on itself, the names along
+     * the loop (starting and ending with slot's own name). Null if there's no cycle.
+     */
+    List<String> findCycle(int slot, int[] dependencies) {
+        List<String> path = new ArrayList<>();
+        path.add(VariableNames.name(slot));
+        boolean[] visited = new boolean[formulas.length];
+        for (int dependency : dependencies) {
+            if (reaches(dependency, slot, visited, path)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    // Depth first along formula dependencies, path holds the way down when target is found
+    private boolean reaches(int from, int target, boolean[] visited, List<String> path) {
+        path.add(VariableNames.name(from));
+        if (from == target) {
+            return true;
+        }
+        if (from < visited.length && !visited[from]) {
+            visited[from] = true;
+            CompiledExpression formula = formulas[from];
+            if (formula != null) {
+                for (int dependency : formula.slots) {
+                    if (reaches(dependency, target, visited, path)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    private void removeFormula(int slot) {
+        CompiledExpression formula = formulas[slot];
+        if (formula == null) {
+            return;
+        }
+        for (int dependency : formula.slots) {
+            removeDependent(dependency, slot);
+        }
+        formulas[slot] = null;
+        formulaSources[slot] = null;
+        stale[slot] = false;
+    }
+
+    private void addDependent(int slot, int dependent) {
+        ensureCapacity(slot);
+        int[] list = dependents[slot];
+        int count = dependentCounts[slot];
+        if (list == null) {
+            list = dependents[slot] = new int[4];
+        } else if (count == list.length) {
+            list = dependents[slot] = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = dependent;
+        dependentCounts[slot] = count + 1;
+    }
+
+    private void removeDependent(int slot, int dependent) {
+        int[] list = dependents[slot];
+        int count = dependentCounts[slot];
+        for (int i = 0; i < count; i++) {
+            if (list[i] == dependent) {
+                list[i] = list[count - 1];
+                dependentCounts[slot] = count - 1;
+                return;
+            }
+        }
+    }
+
+    // Mark everything downstream of slot stale. A slot that's already stale has stale dependents
+    // too (they were marked along with it), so the walk stops there.
+    private void invalidateDependents(int slot) {
+        int[] list = dependents[slot];
+        for (int i = 0; i < dependentCounts[slot]; i++) {
+            int dependent = list[i];
+            if (!stale[dependent]) {
+                stale[dependent] = true;
+                invalidateDependents(dependent);
+            }
+        }
+    }
+
+    /**
+     * Names of all variables that have a value, in slot order.
+     */
+    List<String> definedNames() {
+        List<String> result = new ArrayList<>();
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null) {
+                result.add(VariableNames.name(slot));
+            }
+        }
+        return result;
+    }
+}
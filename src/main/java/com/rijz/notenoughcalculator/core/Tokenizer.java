@@ -0,0 +1,371 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import net.minecraft.client.resource.language.I18n;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Breaks an expression string into tokens stored in flat arrays.
+ *
+ * Token i is described by kinds[i], starts[i], ends[i], data[i] and numbers[i].
+ * The arrays grow when needed and are reused between calls, so lexing a keystroke
+ * doesn't allocate anything. Units and functions are matched against the input
+ * directly instead of building lowercase strings, and short numbers are read straight
+ * into a long.
+ *
+ * Typing in the REI search bar mostly edits the end of the input, so tokens that end
+ * before the first changed character are kept and only the rest is lexed again.
+ */
+final class Tokenizer {
+
+    // Token kinds
+    static final int NUM = 0;
+    static final int ANS = 1;
+    static final int OP = 2;
+    static final int LPAREN = 3;
+    static final int RPAREN = 4;
+    static final int FUNC = 5;
+    static final int VAR = 6;
+    static final int UNIT = 7;
+    static final int EOF = 8;
+
+    // Skyblock units - a UNIT token's data is its index here
+    static final String[] UNIT_NAMES = {"k", "m", "b", "t", "s", "e", "h", "sc", "dc", "eb"};
+    static final BigDecimal[] UNIT_VALUES = {
+            new BigDecimal("1000"),
+            new BigDecimal("1000000"),
+            new BigDecimal("1000000000"),
+            new BigDecimal("1000000000000"),
+            new BigDecimal("64"),      // Stack
+            new BigDecimal("160"),     // Enchanted
+            new BigDecimal("1728"),    // Shulker (27*64)
+            new BigDecimal("1728"),    // Small chest
+            new BigDecimal("3456"),    // Double chest
+            new BigDecimal("2880")     // Ender chest (45*64)
+    };
+
+    // Same values as longs for the interpreter's fast path
+    static final long[] UNIT_LONG_VALUES = {1000L, 1000000L, 1000000000L, 1000000000000L, 64, 160, 1728, 1728, 3456, 2880};
+
+    // Supported math functions - a FUNC token's data is its index here
+    static final String[] FUNCTION_NAMES = {"sqrt", "abs", "floor", "ceil", "round"};
+    static final int SQRT = 0;
+    static final int ABS = 1;
+    static final int FLOOR = 2;
+    static final int CEIL = 3;
+    static final int ROUND = 4;
+
+    // Numbers with more digits than this might not fit in a long
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    int count = 0;
+    int[] kinds = new int[INITIAL_CAPACITY];
+    int[] starts = new int[INITIAL_CAPACITY];
+    int[] ends = new int[INITIAL_CAPACITY];     // Index just past the last character
+    // OP: the operator char ('x' is stored as '*'), FUNC/UNIT: table index,
+    // VAR: where the name starts (after '$'), NUM: digits after the dot, or -1 if too long for a long
+    int[] data = new int[INITIAL_CAPACITY];
+    long[] numbers = new long[INITIAL_CAPACITY]; // NUM: all digits as one long, dot ignored
+
+    // The input the arrays describe, null if the last call failed
+    private String input = null;
+
+    private static String tr(String key, Object... args) {
+        return I18n.translate(key, args);
+    }
+
+    String getInput() {
+        return input;
+    }
+
+    /**
+     * Tokenize an expression. Ends with an EOF token at expr.length().
+     */
+    void tokenize(String expr) throws EvalException {
+        count = reusableTokenCount(expr);
+        input = null;  // Only valid again once lexing succeeds
+
+        int i = count == 0 ? 0 : ends[count - 1];
+        int length = expr.length();
+
+        while (i < length) {
+            char c = expr.charAt(i);
+
+            // Skip whitespace
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            // Parse numbers (including decimals)
+            if (Character.isDigit(c) || c == '.') {
+                int start = i;
+                boolean hasDot = false;
+                int digits = 0;
+                int digitsAfterDot = 0;
+                long value = 0;
+
+                while (i < length) {
+                    c = expr.charAt(i);
+                    if (Character.isDigit(c)) {
+                        if (digits < MAX_LONG_DIGITS) {
+                            value = value * 10 + Character.digit(c, 10);
+                        }
+                        digits++;
+                        if (hasDot) {
+                            digitsAfterDot++;
+                        }
+                        i++;
+                    } else if (c == '.' && !hasDot) {
+                        hasDot = true;
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+
+                if (digits == 0) {
+                    // Just a "."
+                    throw new EvalException(tr("notenoughcalculator.error.invalid_number"), start);
+                }
+
+                add(NUM, start, i, digits <= MAX_LONG_DIGITS ? digitsAfterDot : -1, value);
+                continue;
+            }
+
+            // Operators
+            if ("+-*/^%".indexOf(c) != -1) {
+                add(OP, i, i + 1, c, 0);
+                i++;
+                continue;
+            }
+
+            // Handle 'x' or 'X' as multiplication
+            if (c == 'x' || c == 'X') {
+                boolean isMultiplication = false;
+
+                // Check if 'x' should be treated as multiplication
+                if (i > 0) {
+                    char prevChar = expr.charAt(i - 1);
+
+                    // If preceded by a digit, it's multiplication (e.g., "10x5")
+                    if (Character.isDigit(prevChar)) {
+                        isMultiplication = true;
+                    }
+                    // If preceded by ')', it's multiplication (e.g., "(5+3)x2")
+                    else if (prevChar == ')') {
+                        isMultiplication = true;
+                    }
+                    // If we just parsed a unit token, it's multiplication (e.g., "10kx50k")
+                    else if (count > 0 && kinds[count - 1] == UNIT) {
+                        isMultiplication = true;
+                    }
+                }
+
+                if (isMultiplication) {
+                    // Normalize 'x' to '*' internally
+                    add(OP, i, i + 1, '*', 0);
+                    i++;
+                    continue;
+                }
+                // Otherwise, 'x' will be parsed as a variable/identifier below
+            }
+
+            // Parentheses
+            if (c == '(') {
+                add(LPAREN, i, i + 1, 0, 0);
+                i++;
+                continue;
+            }
+            if (c == ')') {
+                add(RPAREN, i, i + 1, 0, 0);
+                i++;
+                continue;
+            }
+
+            // Variables, functions, or units
+            if (c == '$' || Character.isLetter(c)) {
+                int start = i;
+
+                if (c == '$') {
+                    i++; // Skip $
+                }
+                int nameStart = i;
+
+                while (i < length && (Character.isLetterOrDigit(expr.charAt(i)) || expr.charAt(i) == '_')) {
+                    char current = expr.charAt(i);
+
+                    // Special handling: if we hit 'x' or 'X' after reading at least one character,
+                    // check if it should be multiplication instead of part of the variable name
+                    // This makes "10bx50k" work the same as "10b*50k"
+                    // If we started with '$', this is definitely a variable, so include the 'x'
+                    // Example: "$myxvar" should include the x
+                    if ((current == 'x' || current == 'X') && i > nameStart && c != '$') {
+                        break;
+                    }
+
+                    i++;
+                }
+
+                // Determine token type
+                int function = indexOfName(FUNCTION_NAMES, expr, nameStart, i);
+                int unit = function == -1 ? indexOfName(UNIT_NAMES, expr, nameStart, i) : -1;
+
+                if (function != -1) {
+                    add(FUNC, start, i, function, 0);
+                } else if (unit != -1) {
+                    // Units only make sense after numbers (ans counts as a number)
+                    int prevKind = count == 0 ? -1 : kinds[count - 1];
+                    if (prevKind == NUM || prevKind == ANS) {
+                        add(UNIT, start, i, unit, 0);
+                    } else {
+                        add(VAR, start, i, nameStart, 0);
+                    }
+                } else if (nameEquals("ans", expr, nameStart, i)) {
+                    // Special variable for last answer - resolved when evaluated, not here
+                    add(ANS, start, i, 0, 0);
+                } else {
+                    add(VAR, start, i, nameStart, 0);
+                }
+                continue;
+            }
+
+            throw new EvalException(tr("notenoughcalculator.error.unexpected_character", c), i);
+        }
+
+        add(EOF, length, length, 0, 0);
+        input = expr;
+    }
+
+    // How many tokens from the last call are still valid for this input.
+    // A token touching the edit can't be kept since new characters might extend it ("12" -> "123").
+    private int reusableTokenCount(String expr) {
+        String previous = input;
+        if (previous == null) {
+            return 0;
+        }
+
+        int limit = Math.min(previous.length(), expr.length());
+        int prefix = 0;
+        while (prefix < limit && previous.charAt(prefix) == expr.charAt(prefix)) {
+            prefix++;
+        }
+
+        // Last token is always EOF, never reuse it
+        int reusable = count - 1;
+        while (reusable > 0 && ends[reusable - 1] >= prefix) {
+            reusable--;
+        }
+        return reusable;
+    }
+
+    private void add(int kind, int start, int end, int tokenData, long number) {
+        if (count == kinds.length) {
+            grow();
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = end;
+        data[count] = tokenData;
+        numbers[count] = number;
+        count++;
+    }
+
+    private void grow() {
+        int capacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        data = Arrays.copyOf(data, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+    }
+
+    // Find a name in the table, comparing case-insensitively without building a string
+    private static int indexOfName(String[] table, String expr, int from, int to) {
+        for (int n = 0; n < table.length; n++) {
+            if (nameEquals(table[n], expr, from, to)) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean nameEquals(String name, String expr, int from, int to) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int k = 0; k < name.length(); k++) {
+            char c = expr.charAt(from + k);
+            // U+0130 lowercases to two chars with String.toLowerCase, so it never matched before either
+            if (Character.toLowerCase(c) != name.charAt(k) || c == '\u0130') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Value of NUM token i. Only called while building the parse tree.
+     */
+    BigDecimal numberValue(int i) {
+        if (data[i] >= 0) {
+            return BigDecimal.valueOf(numbers[i], data[i]);
+        }
+        return new BigDecimal(input.substring(starts[i], ends[i]));
+    }
+
+    /**
+     * Lowercase name of a VAR token, without the '$'.
+     */
+    String variableName(int i) {
+        return input.substring(data[i], ends[i]).toLowerCase();
+    }
+
+    /**
+     * Text of token i as shown in error messages.
+     */
+    String text(int i) {
+        switch (kinds[i]) {
+            case OP:
+                return String.valueOf((char) data[i]);
+            case LPAREN:
+                return "(";
+            case RPAREN:
+                return ")";
+            case FUNC:
+                return FUNCTION_NAMES[data[i]];
+            case UNIT:
+                return UNIT_NAMES[data[i]];
+            case VAR:
+                return variableName(i);
+            case ANS:
+                return "ans";
+            case EOF:
+                return "";
+            default:
+                return input.substring(starts[i], ends[i]);
+        }
+    }
+}
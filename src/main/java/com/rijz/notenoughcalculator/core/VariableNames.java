@@ -0,0 +1,160 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import java.util.Arrays;
+
+/**
+ * Slot numbers for $variable names, shared by everything in the game.
+ *
+ * Each name is interned once (lowercase) and gets a slot. Compiled expressions remember the
+ * slot instead of the name, and since the numbering is global the same compiled expression
+ * works with any {@link EvaluationContext}'s variables. Names never go away, but there are
+ * only as many as anyone ever typed.
+ *
+ * Names are matched case-insensitively straight from the input text, so compiling "$Flip"
+ * doesn't build a lowercase copy first. Synchronized - contexts on different threads compile
+ * at the same time, and it's only hit once per variable while compiling.
+ */
+final class VariableNames {
+
+    // String.toLowerCase() uses the default locale, and in Turkish "I" doesn't become "i".
+    // Only take the char-by-char shortcut when it gives the same answer.
+    private static final boolean ASCII_LOWERCASE_IS_SIMPLE = "I".toLowerCase().equals("i");
+
+    private static String[] names = new String[16];
+    private static int size = 0;
+
+    // Open addressing hash table of slot + 1 (0 = empty), always at most half full
+    private static int[] table = new int[32];
+
+    private VariableNames() {
+    }
+
+    /**
+     * Lowercase a variable name the same way it always has been.
+     */
+    static String normalize(String name) {
+        return name.toLowerCase();
+    }
+
+    /**
+     * Slot for a name that's already lowercase, adding it if it's new.
+     */
+    static synchronized int intern(String name) {
+        int hash = hash(name, 0, name.length());
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return add(name, i);
+            }
+            if (names[entry - 1].equals(name)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Slot for the name in input[from, to), ignoring case, adding it if it's new.
+     */
+    static synchronized int intern(String input, int from, int to) {
+        if (!ASCII_LOWERCASE_IS_SIMPLE || !isAscii(input, from, to)) {
+            return intern(normalize(input.substring(from, to)));
+        }
+
+        int hash = hash(input, from, to);
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0) {
+                return add(normalize(input.substring(from, to)), i);
+            }
+            if (equalsIgnoreAsciiCase(names[entry - 1], input, from, to)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    static synchronized String name(int slot) {
+        return names[slot];
+    }
+
+    private static int add(String name, int tableIndex) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+        }
+
+        int slot = size++;
+        names[slot] = name;
+        table[tableIndex] = slot + 1;
+
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return slot;
+    }
+
+    private static void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int i = hash(names[slot], 0, names[slot].length()) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot + 1;
+        }
+    }
+
+    // Same hash for "FLIP" in the input and the stored "flip"
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + toLowerAscii(s.charAt(i));
+        }
+        // Spread the bits, the table index only uses the low ones
+        return h ^ (h >>> 16);
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isAscii(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreAsciiCase(String name, String input, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != toLowerAscii(input.charAt(from + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
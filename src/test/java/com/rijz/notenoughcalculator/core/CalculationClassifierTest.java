@@ -0,0 +1,144 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The one-pass classifier replaced two sets of regexes (CalculatorManager's and REIHelper's).
+ * Those are kept here as the reference, and with the default item words it has to agree
+ * with them on everything.
+ */
+class CalculationClassifierTest {
+
+    // CalculatorManager.looksLikeCalculation before the rewrite
+    private static final Pattern OPERATOR_PATTERN = Pattern.compile(".*[+\\-*/^%xX].*");
+    private static final Pattern UNIT_PATTERN = Pattern.compile(".*\\d+\\s*[kmbtseh](?:\\s|$|[+\\-*/^%xX()])", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STORAGE_UNIT_PATTERN = Pattern.compile(".*\\d+\\s*(?:sc|dc|eb)(?:\\s|$|[+\\-*/^%xX()])", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FUNCTION_PATTERN = Pattern.compile(".*(sqrt|abs|floor|ceil|round)\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile(".*(ans|\\$\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PAREN_PATTERN = Pattern.compile(".*[()].*");
+    private static final Pattern NUMBER_ONLY = Pattern.compile("^\\s*\\d+\\.?\\d*\\s*$");
+    private static final Pattern MINECRAFT_ITEM = Pattern.compile("(?i).*(sword|pickaxe|axe|shovel|hoe|helmet|chestplate|leggings|boots|diamond|iron|gold|stone|wood|bow|arrow|block|ore|ingot|coal|redstone|lapis|emerald|netherite|pearl|eye|blaze|slime|magma|prismarine|quartz|obsidian|glowstone|hopper|chest|furnace|crafting|enchant|potion|book|bed)");
+
+    // REIHelper.looksLikeCalculation before the rewrite
+    private static final Pattern CALCULATION_PATTERN = Pattern.compile(
+            ".*([+\\-*/^%xX()]|sqrt|abs|floor|ceil|round|ans|\\$|\\d+\\s*[kmbtseh]|\\d+\\s*(?:sc|dc|eb)).*", Pattern.CASE_INSENSITIVE);
+
+    // What random inputs are made of: all the syntax, item words, odd whitespace and letters
+    // that change when lowercased (dotted/dotless i, the Kelvin sign)
+    private static final String[] PIECES = {
+            "1", "2", "0", ".", "5", "k", "K", "m", "B", "t", "s", "S", "e", "h", "H", "c", "C", "d", "D", "b",
+            "x", "X", "+", "-", "*", "/", "^", "%", "(", ")", "$", "_", "a", "A", "n", "N", "q", "r",
+            "sqrt", "ABS", "floor", "ceil", "CeIl", "round", "ans", "sc", "dc", "eb", "DC",
+            "diamond", "SWORD", "axe", "ore", "bed", " ", "  ", "\t", "\n", "\r", "\u000B", "\f", "\u0085",
+            "\u2028", "\u2029", "\u00A0", "\u0130", "\u212A", "\u0131", "\u00E9", "\u0000", "\u001F", "\u00DF", "z", "y"
+    };
+
+    private static final String[] CASES = {
+            "", " ", "64", "64.", "64.5", " 1.2.3", "diamond", "diamond*2", "diamond sword", "5k", "5 k", "5\nk",
+            "x\n5k", "5k\n", "sqrt (", "sqrt\n(", "a\nsqrt(", "$foo", "$", "a$b", "ans", "ANS", "5dc+", "5 eb)",
+            "5kk", "abc ", "sword\n", "\nsword", "CEIL", "5K", "5\u212A", "5 \u0130", "oak planks", "stack",
+            "10 stacks", "5+3", "(5+3", "2x", "xp", "box", "1/2", "64 iron ingot", "iron ingot*64", "3sc", "3 sc"
+    };
+
+    @Test
+    void sameAsTheOldPatterns() {
+        List<String> inputs = new ArrayList<>(List.of(CASES));
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                input.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            inputs.add(input.toString());
+        }
+
+        for (String input : inputs) {
+            assertEquals(oldLooksLikeCalculation(input), CalculationClassifier.looksLikeCalculation(input),
+                    () -> "looksLikeCalculation(\"" + escape(input) + "\")");
+            assertEquals(oldContainsCalculationSyntax(input), CalculationClassifier.containsCalculationSyntax(input),
+                    () -> "containsCalculationSyntax(\"" + escape(input) + "\")");
+        }
+    }
+
+    @Test
+    void itemNamesFromTheGame() {
+        try {
+            CalculationClassifier.setItemNames(ItemNameMatcher.fromNames(List.of("Enchanted Golden Apple", "oak_planks")));
+            assertFalse(CalculationClassifier.looksLikeCalculation("golden apple"));
+            assertFalse(CalculationClassifier.looksLikeCalculation("oak planks"));
+            assertTrue(CalculationClassifier.looksLikeCalculation("apple*2"));
+            // Still there
+            assertFalse(CalculationClassifier.looksLikeCalculation("diamond"));
+            // Function names and ans never count as item words
+            assertTrue(CalculationClassifier.looksLikeCalculation("sqrt(2)"));
+        } finally {
+            CalculationClassifier.setItemNames(ItemNameMatcher.DEFAULT);
+        }
+    }
+
+    private static boolean oldLooksLikeCalculation(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return false;
+        }
+        String trimmed = input.trim();
+        if (NUMBER_ONLY.matcher(trimmed).matches()) {
+            return false;
+        }
+        if (MINECRAFT_ITEM.matcher(trimmed).matches() && !OPERATOR_PATTERN.matcher(trimmed).matches()) {
+            return false;
+        }
+        return OPERATOR_PATTERN.matcher(trimmed).matches()
+                || PAREN_PATTERN.matcher(trimmed).matches()
+                || FUNCTION_PATTERN.matcher(trimmed).matches()
+                || VARIABLE_PATTERN.matcher(trimmed).matches()
+                || UNIT_PATTERN.matcher(trimmed).matches()
+                || STORAGE_UNIT_PATTERN.matcher(trimmed).matches();
+    }
+
+    private static boolean oldContainsCalculationSyntax(String input) {
+        if (input == null || input.trim().isEmpty()) {
+            return false;
+        }
+        return CALCULATION_PATTERN.matcher(input.toLowerCase()).matches();
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c < 32 || c > 126) {
+                sb.append(String.format("\\u%04X", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Constant folding has to give exactly what running the unfolded code gives. Variables are never
+ * folded, so every expression is compared with the same one where the numbers are $variables.
+ */
+class ConstantFoldingTest {
+
+    private final Tokenizer tokens = new Tokenizer();
+    private final Interpreter interpreter = new Interpreter(new MathContext(50, RoundingMode.HALF_UP));
+    private final ExpressionCompiler compiler = new ExpressionCompiler(tokens, interpreter);
+    private final SymbolTable symbols = new SymbolTable();
+
+    ConstantFoldingTest() {
+        // The default digit and operation limits, but no time limit so results don't depend on the machine
+        interpreter.setLimits(10000, 1000, 0);
+    }
+
+    @Test
+    void constantExpressionsBecomeOneConstant() throws EvalException {
+        CompiledExpression code = compile("3dc*64+2eb");
+        assertEquals(1, code.length());
+        assertEquals(new BigDecimal(3 * 3456 * 64 + 2 * 2880), run(code));
+
+        // Unary minus binds tighter than ^
+        code = compile("-(2+3)^2 + sqrt(16)*1k");
+        assertEquals(1, code.length());
+        assertEquals(new BigDecimal(25 + 4000), run(code));
+    }
+
+    @Test
+    void errorsAreLeftForRunTime() throws EvalException {
+        for (String expr : new String[]{"1/0", "5%0", "2+sqrt(-1)", "2^1001", "(-8)^0.5", "10^9999*10^9999"}) {
+            CompiledExpression code = compile(expr);
+            assertThrows(EvalException.class, () -> run(code), expr);
+        }
+    }
+
+    @Test
+    void sameAsUnfolded() {
+        String[][] cases = {
+                {"1/3*3", "$v0/$v1*$v2", "1", "3", "3"},
+                {"2^3^2", "$v0^$v1^$v2", "2", "3", "2"},
+                {"-2^2", "-$v0^$v1", "2", "2"},
+                {"10/4", "$v0/$v1", "10", "4"},
+                {"7%2.5", "$v0%$v1", "7", "2.5"},
+                {"0.1+0.2", "$v0+$v1", "0.1", "0.2"},
+                {"2/3+1/3", "$v0/$v1+$v2/$v3", "2", "3", "1", "3"},
+                {"round(2.5)*floor(-1.5)", "round($v0)*floor(-$v1)", "2.5", "1.5"},
+                {"sqrt(2)^2", "sqrt($v0)^$v1", "2", "2"},
+                {"123456789012345678901234567890*3", "$v0*$v1", "123456789012345678901234567890", "3"},
+                {"5/0+1", "$v0/$v1+$v2", "5", "0", "1"},
+        };
+        for (String[] c : cases) {
+            List<BigDecimal> values = new ArrayList<>();
+            for (int i = 2; i < c.length; i++) {
+                values.add(new BigDecimal(c[i]));
+            }
+            assertEquals(evaluate(c[0]), evaluate(c[1], values), c[0]);
+        }
+    }
+
+    @Test
+    void randomExpressionsSameAsUnfolded() {
+        Random random = new Random(11);
+        String[] operators = {"+", "-", "*", "/", "^", "%", "x"};
+        String[] functions = {"sqrt(", "abs(", "floor(", "ceil(", "round("};
+        String[] units = {"k", "m", "b", "s", "e", "h", "sc", "dc", "eb"};
+        String[] numbers = {"0", "1", "2", "3", "7", "10", "100", "0.5", "1.25", "3.14159", "12345678901234567890"};
+
+        for (int n = 0; n < 20000; n++) {
+            // Numbers with a unit stay numbers in both, the rest become ($vN) in the second one
+            StringBuilder folded = new StringBuilder();
+            StringBuilder unfolded = new StringBuilder();
+            List<BigDecimal> values = new ArrayList<>();
+            int open = 0;
+            int terms = 1 + random.nextInt(6);
+            for (int t = 0; t < terms; t++) {
+                if (t > 0) {
+                    append(operators[random.nextInt(operators.length)], folded, unfolded);
+                }
+                while (random.nextInt(4) == 0) {
+                    boolean paren = random.nextBoolean();
+                    append(paren ? "(" : "-", folded, unfolded);
+                    open += paren ? 1 : 0;
+                }
+                if (random.nextInt(8) == 0) {
+                    append(functions[random.nextInt(functions.length)], folded, unfolded);
+                    open++;
+                }
+                String number = numbers[random.nextInt(numbers.length)];
+                if (random.nextInt(5) == 0) {
+                    append(number + units[random.nextInt(units.length)], folded, unfolded);
+                } else {
+                    folded.append(number);
+                    unfolded.append("($v").append(values.size()).append(')');
+                    values.add(new BigDecimal(number));
+                }
+                while (open > 0 && random.nextInt(3) == 0) {
+                    append(")", folded, unfolded);
+                    open--;
+                }
+            }
+            append(")".repeat(open), folded, unfolded);
+
+            assertEquals(evaluate(folded.toString()), evaluate(unfolded.toString(), values),
+                    folded + " vs " + unfolded);
+        }
+    }
+
+    private static void append(String text, StringBuilder folded, StringBuilder unfolded) {
+        folded.append(text);
+        unfolded.append(text);
+    }
+
+    private CompiledExpression compile(String expr) throws EvalException {
+        tokens.tokenize(expr);
+        return compiler.compile(false);
+    }
+
+    private BigDecimal run(CompiledExpression code) throws EvalException {
+        interpreter.begin(code);
+        return interpreter.run(code, symbols, BigDecimal.ZERO);
+    }
+
+    private String evaluate(String expr) {
+        return evaluate(expr, List.of());
+    }
+
+    // The exact value (scale included), or the error. Positions are left out, the two texts differ.
+    private String evaluate(String expr, List<BigDecimal> values) {
+        for (int i = 0; i < values.size(); i++) {
+            symbols.assign(VariableNames.intern("v" + i), values.get(i));
+        }
+        try {
+            return run(compile(expr)).toString();
+        } catch (EvalException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.TooExpensiveException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The parser used to recurse once per nesting level and ran out of stack on deep input.
+ * Now nesting is only limited by memory, and precedence still works like the recursive one.
+ */
+class ExpressionCompilerTest {
+
+    // Way past what the recursive parser survived with the default thread stack
+    private static final int DEPTH = 100_000;
+
+    private final Tokenizer tokens = new Tokenizer();
+    private final Interpreter interpreter = new Interpreter(new MathContext(50, RoundingMode.HALF_UP));
+    private final ExpressionCompiler compiler = new ExpressionCompiler(tokens, interpreter);
+    private final SymbolTable symbols = new SymbolTable();
+
+    ExpressionCompilerTest() {
+        interpreter.setLimits(10000, 1000, 0);
+        symbols.assign(VariableNames.intern("v"), new BigDecimal(2));
+    }
+
+    @Test
+    void precedence() throws EvalException {
+        assertEquals(new BigDecimal(14), evaluate("2+3*4"));
+        assertEquals(new BigDecimal(512), evaluate("2^3^2"));
+        assertEquals(new BigDecimal(4), evaluate("-2^2"));
+        assertEquals(new BigDecimal(-2), evaluate("2-3-1"));
+        assertEquals(new BigDecimal(2), evaluate("12/3/2"));
+        assertEquals(new BigDecimal(1280), evaluate("2*10k/16+30"));
+        assertEquals(new BigDecimal(5), evaluate("5 3"));
+        assertEquals(new BigDecimal(20), evaluate("(2+3)x4"));
+    }
+
+    @Test
+    void deepNesting() throws EvalException {
+        assertEquals(new BigDecimal(3), evaluate("(".repeat(DEPTH) + "1+2" + ")".repeat(DEPTH)));
+        assertEquals(new BigDecimal(5), evaluate("-".repeat(DEPTH) + "5"));
+        assertEquals(new BigDecimal(5), evaluate("-(".repeat(DEPTH) + "5" + ")".repeat(DEPTH)));
+        assertEquals(new BigDecimal(1), evaluate("1^".repeat(DEPTH) + "1"));
+        assertEquals(new BigDecimal(3), evaluate("abs(".repeat(DEPTH) + "-3" + ")".repeat(DEPTH)));
+        assertEquals(new BigDecimal(DEPTH + 1), evaluate("1+(".repeat(DEPTH) + "1" + ")".repeat(DEPTH)));
+        // Not folded, so this one really runs
+        assertEquals(new BigDecimal(6), evaluate("(".repeat(DEPTH) + "$v*3" + ")".repeat(DEPTH)));
+    }
+
+    @Test
+    void deepNestingHitsTheOperationLimitNotTheStack() {
+        String expr = "$v+(".repeat(DEPTH) + "$v" + ")".repeat(DEPTH);
+        assertThrows(TooExpensiveException.class, () -> evaluate(expr));
+    }
+
+    @Test
+    void deepUnfinishedInput() throws EvalException {
+        String expr = "(".repeat(DEPTH) + "2*3+";
+        assertThrows(EvalException.class, () -> evaluate(expr));
+
+        tokens.tokenize(expr);
+        CompiledExpression code = compiler.compile(true);
+        assertTrue(code.recovered);
+        assertEquals(new BigDecimal(6), run(code));
+
+        tokens.tokenize("(".repeat(DEPTH) + "2*3" + ")".repeat(DEPTH));
+        assertFalse(compiler.compile(true).recovered);
+    }
+
+    private BigDecimal evaluate(String expr) throws EvalException {
+        tokens.tokenize(expr);
+        return run(compiler.compile(false));
+    }
+
+    private BigDecimal run(CompiledExpression code) throws EvalException {
+        interpreter.begin(code);
+        return interpreter.run(code, symbols, BigDecimal.ZERO);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The long square root has to agree with BigInteger's everywhere, up to Long.MAX_VALUE where
+ * squaring the next root up would overflow.
+ */
+class NumericKernelTest {
+
+    private static final long MAX_ROOT = 3037000499L;  // floor(sqrt(Long.MAX_VALUE))
+
+    @Test
+    void sqrtExactSmallValues() {
+        assertEquals(0, NumericKernel.sqrtExact(0));
+        assertEquals(1, NumericKernel.sqrtExact(1));
+        assertEquals(-1, NumericKernel.sqrtExact(2));
+        assertEquals(12, NumericKernel.sqrtExact(144));
+        assertEquals(-1, NumericKernel.sqrtExact(-4));
+        assertEquals(-1, NumericKernel.sqrtExact(Long.MIN_VALUE));
+    }
+
+    @Test
+    void sqrtExactNearLongMax() {
+        long square = MAX_ROOT * MAX_ROOT;
+        assertEquals(MAX_ROOT, NumericKernel.sqrtExact(square));
+        assertEquals(-1, NumericKernel.sqrtExact(square + 1));
+        assertEquals(-1, NumericKernel.sqrtExact(square - 1));
+        assertEquals(MAX_ROOT - 1, NumericKernel.sqrtExact((MAX_ROOT - 1) * (MAX_ROOT - 1)));
+        assertEquals(-1, NumericKernel.sqrtExact(Long.MAX_VALUE));
+        assertEquals(-1, NumericKernel.sqrtExact(9223372036854775800L));
+    }
+
+    @Test
+    void sqrtExactSameAsBigInteger() {
+        Random random = new Random(5);
+        for (int i = 0; i < 100_000; i++) {
+            // Squares and their neighbours, plus plain random values, over the whole range
+            long root = (random.nextLong() >>> 1) % (MAX_ROOT + 1);
+            long value = switch (i % 4) {
+                case 0 -> root * root;
+                case 1 -> root * root + 1;
+                case 2 -> root * root - 1;
+                default -> random.nextLong() >>> 1;
+            };
+            BigInteger big = BigInteger.valueOf(value);
+            long expected = value >= 0 && big.sqrt().pow(2).equals(big) ? big.sqrt().longValueExact() : -1;
+            assertEquals(expected, NumericKernel.sqrtExact(value), "sqrtExact(" + value + ")");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of Not Enough Calculator.
+ *
+ * Not Enough Calculator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Not Enough Calculator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.rijz.notenoughcalculator.core;
+
+import com.rijz.notenoughcalculator.core.ExpressionEvaluator.EvalException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Re-tokenizing keeps the tokens before the first changed character and only lexes the rest.
+ * Whatever the edit, the result has to be exactly what lexing the new text from scratch gives.
+ */
+class TokenizerTest {
+
+    private static final String[] EXPRESSIONS = {
+            "5+3", "(5+3)*2", "10k+5m", "3dc*64+2eb", "sqrt(16)+abs(-2)", "5x3", "2x$a", "(1+2)x3",
+            "$profit / 2", "ans*2", "12.5%3", "2^3^2", "floor(3.7)-ceil(1.2)", "1.5sc - 2 s", "5 x 3 x 2",
+            "123456789012345678901234567890+1", "0.000001*3", "-(-5)", "round(2.5)k", "4eb+$price_2"
+    };
+
+    // Characters edits are made of: digits, every operator, unit and function letters, junk
+    private static final String EDIT_CHARS = "0123456789.+-*/^%()xX $_abcdehkmstqrlnoufASKDE#&";
+
+    @Test
+    void typingCharacterByCharacter() {
+        Tokenizer incremental = new Tokenizer();
+        for (String expr : EXPRESSIONS) {
+            for (int i = 1; i <= expr.length(); i++) {
+                check(incremental, expr.substring(0, i));
+            }
+        }
+    }
+
+    @Test
+    void backspacing() {
+        Tokenizer incremental = new Tokenizer();
+        for (String expr : EXPRESSIONS) {
+            for (int i = expr.length(); i >= 0; i--) {
+                check(incremental, expr.substring(0, i));
+            }
+        }
+    }
+
+    @Test
+    void editsThatChangeEarlierTokens() {
+        // Each pair is one edit: a number growing, "x" turning into multiplication, a name
+        // getting longer, a unit becoming another one
+        String[][] edits = {
+                {"12", "123"}, {"1.", "1.5"}, {"5x", "5x3"}, {"sq", "sqrt("}, {"$ab", "$abc"},
+                {"5 s", "5 sc"}, {"5d", "5dc"}, {"an", "ans"}, {"5k", "5kk"}, {"2e", "2eb"},
+                {"5+3", "5-3"}, {"(5+3)*2", "(5+4)*2"}, {"5#", "5"}, {"5", "5#"}, {"10k", "10"}
+        };
+        for (String[] edit : edits) {
+            Tokenizer incremental = new Tokenizer();
+            check(incremental, edit[0]);
+            check(incremental, edit[1]);
+        }
+    }
+
+    @Test
+    void randomEdits() {
+        Random random = new Random(2);
+        Tokenizer incremental = new Tokenizer();
+        StringBuilder text = new StringBuilder(EXPRESSIONS[0]);
+
+        for (int i = 0; i < 20000; i++) {
+            int at = random.nextInt(text.length() + 1);
+            switch (random.nextInt(4)) {
+                case 0 -> text.insert(at, EDIT_CHARS.charAt(random.nextInt(EDIT_CHARS.length())));
+                case 1 -> {
+                    if (at < text.length()) {
+                        text.deleteCharAt(at);
+                    }
+                }
+                case 2 -> text.append(EDIT_CHARS.charAt(random.nextInt(EDIT_CHARS.length())));
+                default -> {
+                    if (text.length() > 30) {
+                        text.setLength(0);
+                        text.append(EXPRESSIONS[random.nextInt(EXPRESSIONS.length)]);
+                    }
+                }
+            }
+            check(incremental, text.toString());
+        }
+    }
+
+    // Tokenize with the reused tokenizer and a fresh one, both have to fail or give the same tokens
+    private static void check(Tokenizer incremental, String expr) {
+        Tokenizer fresh = new Tokenizer();
+        String expectedError = tokenize(fresh, expr);
+        String actualError = tokenize(incremental, expr);
+        assertEquals(expectedError, actualError, () -> "error for \"" + expr + "\"");
+        if (expectedError != null) {
+            return;
+        }
+
+        assertEquals(fresh.count, incremental.count, () -> "token count for \"" + expr + "\"");
+        for (int i = 0; i < fresh.count; i++) {
+            String where = "token " + i + " of \"" + expr + "\"";
+            assertEquals(fresh.kinds[i], incremental.kinds[i], () -> "kind of " + where);
+            assertEquals(fresh.starts[i], incremental.starts[i], () -> "start of " + where);
+            assertEquals(fresh.ends[i], incremental.ends[i], () -> "end of " + where);
+            assertEquals(fresh.data[i], incremental.data[i], () -> "data of " + where);
+            assertEquals(fresh.numbers[i], incremental.numbers[i], () -> "number of " + where);
+            if (fresh.kinds[i] == Tokenizer.NUM) {
+                assertEquals(fresh.numberValue(i), incremental.numberValue(i), () -> "value of " + where);
+            }
+        }
+    }
+
+    // The error message and position, or null if it worked
+    private static String tokenize(Tokenizer tokens, String expr) {
+        try {
+            tokens.tokenize(expr);
+            return null;
+        } catch (EvalException e) {
+            return e.getMessage() + " at " + e.getPosition();
+        }
+    }
+}